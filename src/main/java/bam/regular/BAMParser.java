@@ -26,54 +26,107 @@ package bam.regular;
 
 import exception.GenomeException;
 import exception.GenomeFileException;
+import genome.assembly.AlignedRead;
 import genome.assembly.SAMRecordList;
 import htsjdk.samtools.*;
+import htsjdk.samtools.util.CloseableIterator;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
 
 
 /**
- * Class for parsing of BAM files to ArrayList of SAMRecords.
+ * Class for parsing of BAM and CRAM files to ArrayList of SAMRecords.
  *
  * @author Vladislav Marchenko
  * @author Sergey Khvatov
  */
-public class BAMParser {
+public class BAMParser implements Closeable {
 
     /**
-     * Maximum len of the region that will be processed.
+     * Maximum distance between two exons, which are read
+     * from the file using the same query.
      */
-    private static final int MAX_REGION_LENGTH = 20;
+    private static final int MAX_EXON_GAP = 300;
 
     /**
      * Default extension of BAM files.
      */
     private static final String BAM_EXTENSION = "bam";
 
+    /**
+     * Default extension of CRAM files.
+     */
+    static final String CRAM_EXTENSION = "cram";
+
     /**
      * BAM file.
      */
     private File BAMFile;
 
+    /**
+     * Pool of the readers, that are opened for the BAM file.
+     */
+    private SamReaderPool readerPool;
+
+    /**
+     * Filters of the reads and validation stringency.
+     */
+    private ReaderOptions options;
+
+    /**
+     * Resolver of the chromosome names, built from the header of the BAM file.
+     */
+    private volatile ContigResolver contigResolver;
+
     /**
      * Default class constructor from name of the BAM file and ArrayList of exons(class BEDFeature).
      *
-     * @param BAMFileName name of the BAM file.
+     * @param BAMFileName name of the BAM file, or "-" to read it from the standard input.
      * @throws GenomeFileException if input BAM file is invalid.
      */
     public BAMParser(String BAMFileName) {
+        this(BAMFileName, new ReaderOptions());
+    }
+
+    /**
+     * Class constructor from name of the BAM file and the options of reading it.
+     *
+     * @param BAMFileName name of the BAM or CRAM file, or "-" to read it from the standard input.
+     * @param options     Filters of the reads, validation stringency and reference of CRAM files.
+     * @throws GenomeFileException if input BAM file is invalid.
+     */
+    public BAMParser(String BAMFileName, ReaderOptions options) {
+        this.options = options;
         this.BAMFile = new File(BAMFileName);
-        if (isInvalid(this.BAMFile)) {
+        // standard input can be read only in the streaming mode
+        if (!BAMFileName.equals(SamReaderPool.STANDARD_INPUT) && isInvalid(this.BAMFile)) {
             throw new GenomeFileException(this.getClass().getName(), "BAMParser", BAMFileName, "error occurred during file validation");
         }
+        this.readerPool = new SamReaderPool(this.BAMFile, options);
+    }
 
+    /**
+     * Closes all the readers, that were opened for the BAM file.
+     *
+     * @throws GenomeFileException if error occurs while closing the readers.
+     */
+    @Override
+    public void close() {
+        readerPool.close();
     }
 
     /**
-     * Validates the input BAM file.
+     * Validates the input BAM or CRAM file.
      *
      * @return true if BAM file is not valid, else return false.
      */
@@ -93,24 +146,30 @@ public class BAMParser {
         String[] filename = BAMFile.getName().split("\\.");
         String extension = filename[filename.length - 1];
 
-        return !extension.toLowerCase().equals(BAM_EXTENSION);
+        return !extension.toLowerCase().equals(BAM_EXTENSION) && !extension.toLowerCase().equals(CRAM_EXTENSION);
     }
 
     /**
-     * Parse exons from the BAM file.
+     * Parse exons from the BAM file. Nearby exons are merged into groups
+     * and each group is read from the file with a single query.
      *
      * @param exons List of exons that were parsed from the corresponding BED file.
      * @return SAMRecordList of SAMRecords from the current gene
      * @throws GenomeException if anything went wrong
      */
     public SAMRecordList parse(List<BEDFeature> exons) {
-        // output SAMRecordList
-        SAMRecordList samRecords = new SAMRecordList();
-        // pass through all exons
-        for (BEDFeature exon : exons) {
-            samRecords.addAll(parse(exon));
+        List<AlignedRead> records = new ArrayList<>();
+        // the same limiter is used by all the groups, because they are sorted
+        DepthLimiter limiter = new DepthLimiter(options.maxDepth);
+        // the last processed group, used to skip the reads
+        // that were already returned by its query
+        BEDFeature previous = null;
+        for (List<BEDFeature> group : mergeNearbyExons(exons)) {
+            BEDFeature first = group.get(0);
+            int skipUntil = previous != null && previous.getChromosomeName().equals(first.getChromosomeName()) ? previous.getEndPos() : 0;
+            previous = queryGroup(group, skipUntil, limiter, records);
         }
-        return samRecords;
+        return new SAMRecordList(records);
     }
 
     /**
@@ -122,90 +181,265 @@ public class BAMParser {
      * @throws GenomeFileException if file error occurs.
      */
     public SAMRecordList parse(BEDFeature exon) {
-        List<BEDFeature> smallerExons = generateExons(exon.getStartPos(), exon.getEndPos(), exon.getChromosomeName(), exon.getGene());
-        SAMRecordList recordList = new SAMRecordList();
-        for (BEDFeature e : smallerExons) {
-            recordList.addAll(parseExon(e));
-        }
-        return recordList;
+        List<AlignedRead> records = new ArrayList<>();
+        queryGroup(Collections.singletonList(exon), 0, new DepthLimiter(options.maxDepth), records);
+        return new SAMRecordList(records);
     }
 
     /**
-     * Parse smaller exons from this BAM file.
+     * Parse all the features from the BAM file in the batch mode. Features are sorted
+     * by chromosome and start position, overlapping and adjacent ones are merged, and
+     * each chromosome is read with a single multi-interval query, so that the file is
+     * read forward once per chromosome. Reads are then routed back to the features they
+     * overlap. Each feature is passed to the consumer, as soon as all its reads are known.
      *
-     * @param exon exon, which we want to take
-     * @return SAMRecordList of SAMRecords from the current gene
+     * @param features Features, that should be parsed from the file.
+     * @param consumer Consumer of the features and the reads overlapping them.
      * @throws GenomeException if error occurs while parsing.
      */
-    private SAMRecordList parseExon(BEDFeature exon) {
-        SAMRecordList samRecords = new SAMRecordList();
-        try (SamReader samReader = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.STRICT).open(BAMFile)) {
-            // check if bam file contains this chromosome
-            if (samReader.getFileHeader().getSequence(exon.getChromosomeName()) == null) {
-                // if it doesn't then change it
-                exon.changeChromosomeName();
-
-                // if bam file still doesn't contain this chromosome
-                // return an empty list to prevent SamReader from
-                // throwing an exception because of it
-                if (samReader.getFileHeader().getSequence(exon.getChromosomeName()) == null) {
-                    return samRecords;
+    public void parseBatch(List<BEDFeature> features, BiConsumer<BEDFeature, SAMRecordList> consumer) {
+        SamReader samReader = null;
+        try {
+            // lease the reader, that is confined to this thread until it is released
+            samReader = readerPool.lease();
+
+            Map<Integer, List<BEDFeature>> chromosomes = splitByChromosomes(getContigResolver(), features, consumer);
+            for (Map.Entry<Integer, List<BEDFeature>> chromosome : chromosomes.entrySet()) {
+                QueryInterval[] intervals = new QueryInterval[chromosome.getValue().size()];
+                for (int i = 0; i < intervals.length; i++) {
+                    BEDFeature feature = chromosome.getValue().get(i);
+                    intervals[i] = new QueryInterval(chromosome.getKey(), Math.max(1, feature.getStartPos()), feature.getEndPos());
                 }
+                Arrays.sort(intervals);
+
+                FeatureReadRouter router = new FeatureReadRouter(chromosome.getValue(), consumer);
+                DepthLimiter limiter = new DepthLimiter(options.maxDepth);
+                // Iterator is always closed, so that the reader can be reused by the next query.
+                try (CloseableIterator<SAMRecord> iter = readerPool.query(samReader, QueryInterval.optimizeIntervals(intervals))) {
+                    while (iter.hasNext()) {
+                        SAMRecord samRecord = iter.next();
+                        if (options.accept(samRecord) && samRecord.getEnd() != 0) {
+                            limiter.add(samRecord, router::add);
+                        }
+                    }
+                }
+                limiter.flush(router::add);
+                router.finish();
             }
+        } catch (NullPointerException | IllegalArgumentException | SAMException ioex) {
+            // If catch an exception then create our GenomeException exception;
+            GenomeException ibfex = new GenomeException(this.getClass().getName(), "parseBatch", ioex.getMessage());
+            ibfex.initCause(ioex);
+            throw ibfex;
+        } finally {
+            if (samReader != null) {
+                readerPool.release(samReader);
+            }
+        }
+    }
 
-            // Start iterating from start to end of current chromosome.
-            SAMRecordIterator iter = samReader.query(exon.getChromosomeName(), exon.getStartPos(), exon.getEndPos(), false);
+    /**
+     * Parse all the features from the BAM file in the streaming mode. The file is read
+     * sequentially from start to end in one pass without the index, and the reads are
+     * routed to the features they overlap, so the file may also be read from the standard
+     * input. Each feature is passed to the consumer, as soon as all its reads are known.
+     *
+     * @param features Features, that should be parsed from the file.
+     * @param consumer Consumer of the features and the reads overlapping them.
+     * @throws GenomeException     if error occurs while parsing or the file is not sorted by coordinate.
+     * @throws GenomeFileException if the file can't be opened.
+     */
+    public void parseStream(List<BEDFeature> features, BiConsumer<BEDFeature, SAMRecordList> consumer) {
+        try (BAMStreamReader iter = readerPool.openSequential()) {
+            ContigResolver resolver = new ContigResolver(iter.getFileHeader().getSequenceDictionary());
+            Map<Integer, List<BEDFeature>> chromosomes = splitByChromosomes(resolver, features, consumer);
+            Iterator<Map.Entry<Integer, List<BEDFeature>>> pending = chromosomes.entrySet().iterator();
+            Map.Entry<Integer, List<BEDFeature>> chromosome = pending.hasNext() ? pending.next() : null;
+            FeatureReadRouter router = chromosome != null ? new FeatureReadRouter(chromosome.getValue(), consumer) : null;
+            DepthLimiter limiter = new DepthLimiter(options.maxDepth);
 
-            // while there are sam strings in this region
-            while (iter.hasNext()) {
-                // Iterate thorough each record and extract fragment size
+            // position of the previous read, used to check the order of the reads
+            int previousIndex = 0, previousStart = 0;
+            // stop reading as soon as all the chromosomes with features are passed
+            while (chromosome != null && iter.hasNext()) {
                 SAMRecord samRecord = iter.next();
-                if (samRecord.getEnd() != 0) {
-                    samRecords.add(samRecord);
+                int index = samRecord.getReferenceIndex();
+                if (index == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+                    // only the unplaced reads are left
+                    break;
+                }
+                if (index < previousIndex || index == previousIndex && samRecord.getAlignmentStart() < previousStart) {
+                    throw new GenomeException(this.getClass().getName(), "parseStream", BAMFile.getName(), "not sorted by coordinate");
+                }
+                previousIndex = index;
+                previousStart = samRecord.getAlignmentStart();
+
+                // no further read can overlap the features of the passed chromosomes
+                while (chromosome != null && chromosome.getKey() < index) {
+                    limiter.flush(router::add);
+                    router.finish();
+                    chromosome = pending.hasNext() ? pending.next() : null;
+                    router = chromosome != null ? new FeatureReadRouter(chromosome.getValue(), consumer) : null;
                 }
+                if (chromosome != null && chromosome.getKey() == index && options.accept(samRecord) && samRecord.getEnd() != 0) {
+                    limiter.add(samRecord, router::add);
+                }
+            }
+
+            // pass the features, that were not overlapped by any other read
+            if (router != null) {
+                limiter.flush(router::add);
+            }
+            while (chromosome != null) {
+                router.finish();
+                chromosome = pending.hasNext() ? pending.next() : null;
+                router = chromosome != null ? new FeatureReadRouter(chromosome.getValue(), consumer) : null;
+            }
+        } catch (IllegalArgumentException | SAMException ioex) {
+            // If catch an exception then create our GenomeException exception;
+            GenomeException ibfex = new GenomeException(this.getClass().getName(), "parseStream", ioex.getMessage());
+            ibfex.initCause(ioex);
+            throw ibfex;
+        }
+    }
+
+    /**
+     * Splits the features by the chromosomes, keeping the order of the chromosomes in the file.
+     * Features from the chromosomes, that are not present in the file, are passed
+     * to the consumer immediately with no reads.
+     *
+     * @param resolver Resolver of the chromosome names of the BAM file.
+     * @param features Features, that should be parsed from the file.
+     * @param consumer Consumer of the features and the reads overlapping them.
+     * @return Map from the index of the chromosome to the features from it.
+     */
+    private static Map<Integer, List<BEDFeature>> splitByChromosomes(ContigResolver resolver, List<BEDFeature> features, BiConsumer<BEDFeature, SAMRecordList> consumer) {
+        Map<Integer, List<BEDFeature>> chromosomes = new TreeMap<>();
+        for (BEDFeature feature : features) {
+            int index = resolver.getIndex(feature.getChromosomeName());
+            if (index == -1) {
+                // file doesn't contain this chromosome
+                consumer.accept(feature, new SAMRecordList());
+            } else {
+                chromosomes.computeIfAbsent(index, i -> new ArrayList<>()).add(feature);
+            }
+        }
+        return chromosomes;
+    }
+
+    /**
+     * Reads all the records overlapping the group of exons from
+     * this BAM file using a single query.
+     *
+     * @param group     Exons from the same chromosome sorted by the start position.
+     * @param skipUntil Records, that start at this position or before it, are skipped.
+     * @param limiter   Limiter of the depth, that the records are passed through.
+     * @param records   List, where the records will be added to.
+     * @return Exon, that represents the whole queried region.
+     * @throws GenomeException if error occurs while parsing.
+     */
+    private BEDFeature queryGroup(List<BEDFeature> group, int skipUntil, DepthLimiter limiter, List<AlignedRead> records) {
+        SamReader samReader = null;
+        try {
+            // lease the reader, that is confined to this thread until it is released
+            samReader = readerPool.lease();
+
+            // region, that covers all the exons in the group
+            int end = 0;
+            for (BEDFeature exon : group) {
+                end = Math.max(end, exon.getEndPos());
+            }
+            BEDFeature region = new BEDFeature(group.get(0).getChromosomeName(), group.get(0).getStartPos(), end, group.get(0).getGene());
+
+            // if bam file doesn't contain this chromosome
+            // return to prevent SamReader from
+            // throwing an exception because of it
+            int index = getContigResolver().getIndex(region.getChromosomeName());
+            if (index == -1) {
+                return region;
             }
-            // stop iterator
-            iter.close();
-            return samRecords;
-        } catch (NullPointerException | IllegalArgumentException | SAMException | IOException ioex) {
+
+            // Start iterating from start to end of the region.
+            // Iterator is always closed, so that the reader can be reused by the next query.
+            QueryInterval[] interval = {new QueryInterval(index, region.getStartPos(), region.getEndPos())};
+            try (CloseableIterator<SAMRecord> iter = readerPool.query(samReader, interval)) {
+                // while there are sam strings in this region
+                while (iter.hasNext()) {
+                    SAMRecord samRecord = iter.next();
+                    if (options.accept(samRecord) && samRecord.getEnd() != 0 && samRecord.getStart() > skipUntil) {
+                        limiter.add(samRecord, record -> records.add(new AlignedRead(record)));
+                    }
+                }
+            }
+            limiter.flush(record -> records.add(new AlignedRead(record)));
+            return region;
+        } catch (NullPointerException | IllegalArgumentException | SAMException ioex) {
             // If catch an exception then create our GenomeException exception;
             GenomeException ibfex = new GenomeException(this.getClass().getName(), "parse", ioex.getMessage());
             ibfex.initCause(ioex);
             throw ibfex;
+        } finally {
+            if (samReader != null) {
+                readerPool.release(samReader);
+            }
         }
     }
 
     /**
-     * Adds an exon to the resulting list. If the length of the input
-     * region is more than MAX_REGION_LENGTH, then splits
-     * the input region into small parts.
+     * Returns the resolver of the chromosome names, that is built from the header
+     * of the BAM file once. The resolver isn't available for the standard input,
+     * because its header can be read only once, when the file is streamed.
      *
-     * @param start Start position of the region.
-     * @param end   End position of the region.
-     * @param chrom Name of the chromosome.
-     * @param gene  Name of the gene.
-     * @return List with the regions from the bed file.
-     * @throws GenomeFileException if incorrect parameters were passed while creating BEDFeature object.
-     */
-    private static List<BEDFeature> generateExons(int start, int end, String chrom, String gene) {
-        List<BEDFeature> list = new ArrayList<>();
-        // split big region into small parts
-        int exonLen = end - start;
-        if (exonLen <= MAX_REGION_LENGTH) {
-            list.add(new BEDFeature(chrom, start, end, gene));
-        } else {
-            int tempStart = start;
-            for (int tempEnd = start; tempEnd <= end; tempEnd++) {
-                if (tempEnd - tempStart > MAX_REGION_LENGTH) {
-                    list.add(new BEDFeature(chrom, tempStart, tempEnd, gene));
-                    tempStart = tempEnd + 1;
+     * @return Resolver of the chromosome names, or null for the standard input.
+     * @throws GenomeException if error occurs while reading the header.
+     */
+    public ContigResolver getContigResolver() {
+        if (contigResolver == null && !readerPool.isStandardInput()) {
+            SamReader samReader = null;
+            try {
+                samReader = readerPool.lease();
+                contigResolver = new ContigResolver(samReader.getFileHeader().getSequenceDictionary());
+            } catch (SAMException ioex) {
+                // If catch an exception then create our GenomeException exception;
+                GenomeException ibfex = new GenomeException(this.getClass().getName(), "getContigResolver", ioex.getMessage());
+                ibfex.initCause(ioex);
+                throw ibfex;
+            } finally {
+                if (samReader != null) {
+                    readerPool.release(samReader);
                 }
             }
-            // if the last region size is lesser than MAX_REGION_LENGTH
-            if (end - tempStart > 1) {
-                list.add(new BEDFeature(chrom, tempStart, end, gene));
+        }
+        return contigResolver;
+    }
+
+    /**
+     * Splits the exons into the groups of nearby exons from the same chromosome.
+     * Exons are added to the same group if the distance between them is
+     * not more than MAX_EXON_GAP, so that the reads, that span several exons,
+     * are decoded only once.
+     *
+     * @param exons List of exons.
+     * @return List of groups, each group is sorted by the start position of the exons.
+     */
+    private static List<List<BEDFeature>> mergeNearbyExons(List<BEDFeature> exons) {
+        List<BEDFeature> sorted = new ArrayList<>(exons);
+        sorted.sort(Comparator.comparing(BEDFeature::getChromosomeName).thenComparingInt(BEDFeature::getStartPos));
+
+        List<List<BEDFeature>> groups = new ArrayList<>();
+        List<BEDFeature> group = new ArrayList<>();
+        int groupEnd = 0;
+        for (BEDFeature exon : sorted) {
+            if (!group.isEmpty() && (!group.get(0).getChromosomeName().equals(exon.getChromosomeName()) || exon.getStartPos() - groupEnd > MAX_EXON_GAP)) {
+                groups.add(group);
+                group = new ArrayList<>();
             }
+            groupEnd = group.isEmpty() ? exon.getEndPos() : Math.max(groupEnd, exon.getEndPos());
+            group.add(exon);
+        }
+        if (!group.isEmpty()) {
+            groups.add(group);
         }
-        return list;
+        return groups;
     }
 }
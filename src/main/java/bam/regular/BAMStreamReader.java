@@ -0,0 +1,228 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package bam.regular;
+
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMException;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFormatException;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.SAMUtils;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.BufferedLineReader;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.RuntimeIOException;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Reader of the BAM file, that iterates over all its records sequentially
+ * from start to end. Records are either read by the htsjdk {@link SamReader},
+ * or decoded from the BGZF blocks, that are inflated in parallel by
+ * {@link ParallelBGZFInputStream}.
+ *
+ * @author Sergey Khvatov
+ */
+public class BAMStreamReader implements CloseableIterator<SAMRecord> {
+
+    /**
+     * Magic number at the start of the decompressed BAM file.
+     */
+    private static final byte[] BAM_MAGIC = {'B', 'A', 'M', 1};
+
+    /**
+     * Header of the BAM file.
+     */
+    private SAMFileHeader header;
+
+    /**
+     * Records of the BAM file read by the htsjdk reader.
+     */
+    private CloseableIterator<SAMRecord> samIterator;
+
+    /**
+     * Reader, that is closed together with this one.
+     */
+    private SamReader samReader;
+
+    /**
+     * Decoder of the records, if the blocks are inflated in parallel.
+     */
+    private BAMRecordCodec codec;
+
+    /**
+     * Decompressed stream, if the blocks are inflated in parallel.
+     */
+    private InputStream decompressed;
+
+    /**
+     * Validation stringency of the decoded records.
+     */
+    private ValidationStringency validationStringency;
+
+    /**
+     * Next decoded record.
+     */
+    private SAMRecord next;
+
+    /**
+     * Number of the decoded records.
+     */
+    private long recordsNumber = 0;
+
+    /**
+     * Creates the reader, that iterates over the records read by the htsjdk reader.
+     *
+     * @param samReader Reader of the BAM file.
+     */
+    public BAMStreamReader(SamReader samReader) {
+        this.samReader = samReader;
+        this.header = samReader.getFileHeader();
+        this.samIterator = samReader.iterator();
+    }
+
+    /**
+     * Creates the reader, that decodes the records from the BGZF blocks
+     * inflated in parallel by the thread pool.
+     *
+     * @param input                Stream with the compressed BAM file.
+     * @param inflaters            Pool, where the blocks are inflated.
+     * @param readAhead            Maximum number of the blocks, that are inflated ahead of the consumer.
+     * @param validationStringency Validation stringency of the records.
+     * @param source               Name of the file, used in the error messages.
+     * @throws SAMException if the header of the file is invalid.
+     */
+    public BAMStreamReader(InputStream input, ExecutorService inflaters, int readAhead, ValidationStringency validationStringency, String source) {
+        this.decompressed = new BufferedInputStream(new ParallelBGZFInputStream(input, inflaters, readAhead));
+        this.validationStringency = validationStringency;
+        this.header = readHeader(new BinaryCodec(decompressed), validationStringency, source);
+        this.codec = new BAMRecordCodec(header);
+        this.codec.setInputStream(decompressed, source);
+    }
+
+    /**
+     * @return Header of the BAM file.
+     */
+    public SAMFileHeader getFileHeader() {
+        return header;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (samIterator != null) {
+            return samIterator.hasNext();
+        }
+        if (next == null) {
+            next = codec.decode();
+            if (next != null) {
+                recordsNumber++;
+                if (validationStringency != ValidationStringency.SILENT) {
+                    SAMUtils.processValidationErrors(next.isValid(), recordsNumber, validationStringency);
+                }
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public SAMRecord next() {
+        if (samIterator != null) {
+            return samIterator.next();
+        }
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        SAMRecord record = next;
+        next = null;
+        return record;
+    }
+
+    /**
+     * Closes the reader and the underlying stream.
+     *
+     * @throws RuntimeIOException if error occurs while closing the file.
+     */
+    @Override
+    public void close() {
+        try {
+            if (samIterator != null) {
+                samIterator.close();
+                samReader.close();
+            } else {
+                decompressed.close();
+            }
+        } catch (IOException ioex) {
+            throw new RuntimeIOException(ioex);
+        }
+    }
+
+    /**
+     * Reads the header of the decompressed BAM file.
+     *
+     * @param binaryCodec          Codec of the decompressed stream.
+     * @param validationStringency Validation stringency of the header.
+     * @param source               Name of the file, used in the error messages.
+     * @return Header of the BAM file.
+     * @throws SAMFormatException if the file is not a BAM file.
+     */
+    private static SAMFileHeader readHeader(BinaryCodec binaryCodec, ValidationStringency validationStringency, String source) {
+        byte[] magic = new byte[BAM_MAGIC.length];
+        binaryCodec.readBytes(magic);
+        if (!Arrays.equals(magic, BAM_MAGIC)) {
+            throw new SAMFormatException("Invalid BAM file header in " + source);
+        }
+
+        String text = binaryCodec.readString(binaryCodec.readInt());
+        SAMTextHeaderCodec headerCodec = new SAMTextHeaderCodec();
+        headerCodec.setValidationStringency(validationStringency);
+        SAMFileHeader header = headerCodec.decode(BufferedLineReader.fromString(text.replace("\0", "")), source);
+
+        // the binary list of the references is the one, that is used by the records
+        int referencesNumber = binaryCodec.readInt();
+        List<SAMSequenceRecord> references = new ArrayList<>(referencesNumber);
+        for (int i = 0; i < referencesNumber; i++) {
+            String name = binaryCodec.readString(binaryCodec.readInt());
+            references.add(new SAMSequenceRecord(name.substring(0, name.length() - 1), binaryCodec.readInt()));
+        }
+        if (header.getSequenceDictionary().isEmpty()) {
+            header.setSequenceDictionary(new SAMSequenceDictionary(references));
+        } else if (header.getSequenceDictionary().size() != referencesNumber) {
+            throw new SAMFormatException("Number of the references in the text and binary headers doesn't match in " + source);
+        }
+        return header;
+    }
+}
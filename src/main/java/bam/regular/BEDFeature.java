@@ -26,9 +26,6 @@ package bam.regular;
 
 import exception.GenomeFileException;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * BED file record class.
  *
@@ -42,23 +39,6 @@ public class BEDFeature {
      */
     public static final String ALLOWED_SYMBOLS_REGEXP = "[a-zA-Z0-9.\\-_+]*";
 
-    /**
-     * Dictionary with names for chromosomes.
-     */
-    private static final Map<String, String> CHROMOSOMES_NAMES = new HashMap<>();
-
-    // initialization of the dictionary
-    static {
-        // initialization of autosomal chr
-        for (int i = 0; i < 22; i++) {
-            CHROMOSOMES_NAMES.put(Integer.toString(i), "chr" + i);
-        }
-        // initialization of other chr
-        CHROMOSOMES_NAMES.put("X", "chrX");
-        CHROMOSOMES_NAMES.put("Y", "chrY");
-        CHROMOSOMES_NAMES.put("MT", "chrMT");
-    }
-
     /**
      * Name of the chromosome.
      */
@@ -117,23 +97,6 @@ public class BEDFeature {
         return chrom;
     }
 
-    /**
-     * Changes the name of the chromosome  if it is a known one,
-     * or keeps it the same.
-     */
-    public void changeChromosomeName() {
-        if (CHROMOSOMES_NAMES.containsKey(chrom)) {
-            chrom = CHROMOSOMES_NAMES.get(chrom);
-        } else if (CHROMOSOMES_NAMES.containsValue(chrom)) {
-            for (Map.Entry<String, String> entry : CHROMOSOMES_NAMES.entrySet()) {
-                if (chrom.equals(entry.getValue())) {
-                    chrom = entry.getKey();
-                    return;
-                }
-            }
-        }
-    }
-
     /**
      * Get the start position method.
      *
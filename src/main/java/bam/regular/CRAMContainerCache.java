@@ -0,0 +1,297 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package bam.regular;
+
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.CRAMCRAIIndexer;
+import htsjdk.samtools.Chunk;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.cram.CRAIEntry;
+import htsjdk.samtools.cram.CRAIIndex;
+import htsjdk.samtools.util.CloseableIterator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+/**
+ * Cache of the decoded containers of the CRAM file. Containers overlapping the
+ * query are found with the CRAI index, and each of them is decoded once and kept
+ * in the cache, so the neighbouring features, which fall into the same container,
+ * reuse its records instead of reading and decoding it again. The least recently
+ * used containers are evicted, when the cache is full.
+ *
+ * @author Sergey Khvatov
+ */
+class CRAMContainerCache {
+
+    /**
+     * Extension of the CRAI index files.
+     */
+    private static final String CRAI_EXTENSION = ".crai";
+
+    /**
+     * Reference, alignment start and offset of the container of each slice
+     * from the CRAI index, sorted by the reference and the alignment start.
+     */
+    private int[] references, starts;
+
+    /**
+     * Offset of the container of each slice in the file.
+     */
+    private long[] offsets;
+
+    /**
+     * Alignment end (exclusive) of each slice.
+     */
+    private long[] ends;
+
+    /**
+     * Maximal alignment end of the slices of the same reference up to each one,
+     * used to stop the search of the slices, that end before the interval.
+     */
+    private long[] maxEnds;
+
+    /**
+     * Maximal number of the decoded containers kept in the cache.
+     */
+    private int capacity;
+
+    /**
+     * Decoded containers by their offset in the file, in the order of access.
+     */
+    private Map<Long, DecodedContainer> containers = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Loads the CRAI index of the CRAM file. The index is looked up next to
+     * the CRAM file: {@code file.cram.crai} or {@code file.crai}.
+     *
+     * @param CRAMFile CRAM file.
+     * @param capacity Maximal number of the decoded containers kept in the cache.
+     * @return Cache of the CRAM file, or null if the file has no CRAI index.
+     * @throws IOException if error occurs while reading the index.
+     */
+    static CRAMContainerCache open(File CRAMFile, int capacity) throws IOException {
+        File indexFile = new File(CRAMFile.getPath() + CRAI_EXTENSION);
+        if (!indexFile.isFile()) {
+            String path = CRAMFile.getPath();
+            int dot = path.lastIndexOf('.');
+            indexFile = new File((dot > 0 ? path.substring(0, dot) : path) + CRAI_EXTENSION);
+            if (!indexFile.isFile()) {
+                return null;
+            }
+        }
+        try (InputStream in = new FileInputStream(indexFile)) {
+            return new CRAMContainerCache(CRAMCRAIIndexer.readIndex(in), capacity);
+        }
+    }
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param index    CRAI index of the CRAM file.
+     * @param capacity Maximal number of the decoded containers kept in the cache.
+     */
+    private CRAMContainerCache(CRAIIndex index, int capacity) {
+        List<CRAIEntry> entries = new ArrayList<>(index.getCRAIEntries());
+        entries.sort(Comparator.comparingInt(CRAIEntry::getSequenceId).thenComparingInt(CRAIEntry::getAlignmentStart));
+        this.references = new int[entries.size()];
+        this.starts = new int[entries.size()];
+        this.offsets = new long[entries.size()];
+        this.ends = new long[entries.size()];
+        this.maxEnds = new long[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            CRAIEntry entry = entries.get(i);
+            references[i] = entry.getSequenceId();
+            starts[i] = entry.getAlignmentStart();
+            offsets[i] = entry.getContainerStartByteOffset();
+            ends[i] = (long) entry.getAlignmentStart() + entry.getAlignmentSpan();
+            maxEnds[i] = i > 0 && references[i - 1] == references[i] ? Math.max(maxEnds[i - 1], ends[i]) : ends[i];
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Queries the records overlapping the intervals. Containers, that are not
+     * in the cache, are decoded by the reader lazily, while iterating.
+     *
+     * @param reader    Reader of the CRAM file, that is confined to the calling thread.
+     * @param intervals Sorted non-overlapping intervals.
+     * @return Iterator over the records overlapping the intervals.
+     */
+    CloseableIterator<SAMRecord> query(SamReader reader, QueryInterval[] intervals) {
+        // containers are sorted by the offset, so their records are sorted by coordinate
+        TreeSet<Long> containerOffsets = new TreeSet<>();
+        for (QueryInterval interval : intervals) {
+            int end = interval.end > 0 ? interval.end : Integer.MAX_VALUE;
+            // walk back from the last slice, that starts before the end of the interval
+            for (int i = lastStartingBefore(interval.referenceIndex, end); i >= 0 && references[i] == interval.referenceIndex && maxEnds[i] > interval.start; i--) {
+                if (ends[i] > interval.start) {
+                    containerOffsets.add(offsets[i]);
+                }
+            }
+        }
+        return new IntervalFilteringIterator(new ContainerRecordIterator(reader, containerOffsets.iterator()), intervals);
+    }
+
+    /**
+     * Finds the last slice of the reference, that starts at the position or before it.
+     *
+     * @param reference Index of the reference.
+     * @param position  Position on the reference.
+     * @return Index of the slice, or -1 if there is no such slice.
+     */
+    private int lastStartingBefore(int reference, int position) {
+        int low = 0, high = starts.length - 1, found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (references[middle] < reference || references[middle] == reference && starts[middle] <= position) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the records of the container, decoding it, if it isn't in the cache.
+     * Concurrent requests of the same container wait for a single decoding.
+     *
+     * @param reader Reader of the CRAM file, that is confined to the calling thread.
+     * @param offset Offset of the container in the file.
+     * @return Records of the container sorted by coordinate.
+     */
+    private List<SAMRecord> getContainer(SamReader reader, long offset) {
+        DecodedContainer container;
+        synchronized (containers) {
+            container = containers.get(offset);
+            if (container == null) {
+                container = new DecodedContainer();
+                containers.put(offset, container);
+                Iterator<Long> eldest = containers.keySet().iterator();
+                while (containers.size() > capacity) {
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+        }
+        synchronized (container) {
+            if (container.records == null) {
+                List<SAMRecord> records = new ArrayList<>();
+                // the span of a single container, CRAM chunks hold the container offset in the upper bits
+                BAMFileSpan span = new BAMFileSpan(new Chunk(offset << 16, (offset << 16) | 0xFFFF));
+                try (CloseableIterator<SAMRecord> iter = reader.indexing().iterator(span)) {
+                    while (iter.hasNext()) {
+                        SAMRecord record = iter.next();
+                        // computed once here, so that the shared record is only read afterwards
+                        record.getAlignmentEnd();
+                        records.add(record);
+                    }
+                }
+                container.records = records;
+            }
+            return container.records;
+        }
+    }
+
+    /**
+     * Decoded container of the CRAM file.
+     */
+    private static class DecodedContainer {
+
+        /**
+         * Records of the container, or null if it wasn't decoded yet.
+         */
+        private List<SAMRecord> records;
+    }
+
+    /**
+     * Iterator over the records of the containers, that are taken from
+     * the cache or decoded one by one, when the previous one is exhausted.
+     */
+    private class ContainerRecordIterator implements CloseableIterator<SAMRecord> {
+
+        /**
+         * Reader of the CRAM file, that is confined to the calling thread.
+         */
+        private SamReader reader;
+
+        /**
+         * Offsets of the containers, that weren't read yet.
+         */
+        private Iterator<Long> offsets;
+
+        /**
+         * Records of the current container.
+         */
+        private Iterator<SAMRecord> records = Collections.emptyIterator();
+
+        /**
+         * Creates the iterator.
+         *
+         * @param reader  Reader of the CRAM file.
+         * @param offsets Offsets of the containers in ascending order.
+         */
+        ContainerRecordIterator(SamReader reader, Iterator<Long> offsets) {
+            this.reader = reader;
+            this.offsets = offsets;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!records.hasNext() && offsets.hasNext()) {
+                records = getContainer(reader, offsets.next()).iterator();
+            }
+            return records.hasNext();
+        }
+
+        @Override
+        public SAMRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return records.next();
+        }
+
+        @Override
+        public void close() {
+            // records are owned by the cache
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package bam.regular;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the names of the chromosomes used in the BED files to the indexes
+ * of the contigs in the header of the BAM file. It is built once per header and
+ * maps all the usual spellings of the contig name: with and without the "chr"
+ * prefix, and "M" / "MT" for the mitochondrial chromosome.
+ *
+ * @author Sergey Khvatov
+ */
+public class ContigResolver {
+
+    /**
+     * Prefix of the chromosome names used by UCSC.
+     */
+    private static final String CHROMOSOME_PREFIX = "chr";
+
+    /**
+     * Spellings of the mitochondrial chromosome name without the prefix.
+     */
+    private static final String[] MITOCHONDRIAL_NAMES = {"M", "MT"};
+
+    /**
+     * Index of the contig by each of its spellings.
+     */
+    private Map<String, Integer> indexes = new HashMap<>();
+
+    /**
+     * Builds the resolver from the sequence dictionary of the BAM file.
+     *
+     * @param dictionary Sequence dictionary from the header of the BAM file.
+     */
+    public ContigResolver(SAMSequenceDictionary dictionary) {
+        // names from the header always resolve to themselves
+        for (SAMSequenceRecord sequence : dictionary.getSequences()) {
+            indexes.put(sequence.getSequenceName(), sequence.getSequenceIndex());
+        }
+        for (SAMSequenceRecord sequence : dictionary.getSequences()) {
+            for (String alias : getAliases(sequence.getSequenceName())) {
+                indexes.putIfAbsent(alias, sequence.getSequenceIndex());
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the contig in the header of the BAM file.
+     *
+     * @param chromosomeName Name of the chromosome in any of the usual spellings.
+     * @return Index of the contig, or -1 if the BAM file doesn't contain it.
+     */
+    public int getIndex(String chromosomeName) {
+        Integer index = indexes.get(chromosomeName);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Returns the usual spellings of the contig name.
+     *
+     * @param name Name of the contig in the header.
+     * @return List of the spellings.
+     */
+    private static List<String> getAliases(String name) {
+        String bare = name.regionMatches(true, 0, CHROMOSOME_PREFIX, 0, CHROMOSOME_PREFIX.length()) ? name.substring(CHROMOSOME_PREFIX.length()) : name;
+        List<String> bareNames = new ArrayList<>();
+        bareNames.add(bare);
+        for (String mitochondrial : MITOCHONDRIAL_NAMES) {
+            if (bare.equalsIgnoreCase(mitochondrial)) {
+                // any spelling of the mitochondrial chromosome resolves to it
+                for (String alias : MITOCHONDRIAL_NAMES) {
+                    bareNames.add(alias);
+                }
+            }
+        }
+
+        List<String> aliases = new ArrayList<>();
+        for (String bareName : bareNames) {
+            aliases.add(bareName);
+            aliases.add(CHROMOSOME_PREFIX + bareName);
+        }
+        return aliases;
+    }
+}
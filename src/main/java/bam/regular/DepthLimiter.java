@@ -0,0 +1,143 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package bam.regular;
+
+import htsjdk.samtools.SAMRecord;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Limits the depth of the pileup while the reads, that are sorted by their start position,
+ * are read from the file, so the reads beyond the limit are never kept. The read is kept,
+ * if less than the maximal number of the kept reads cover its start position, which bounds
+ * the depth at every position. Reads with the same start position are taken in the order
+ * of the hash of their names instead of the order in the file, so the downsampling is
+ * deterministic and isn't biased towards the strand, that is sorted first.
+ *
+ * @author Sergey Khvatov
+ */
+class DepthLimiter {
+
+    /**
+     * Maximal number of the kept reads covering any position, or 0 if the depth isn't limited.
+     */
+    private int maxDepth;
+
+    /**
+     * Index of the reference of the last added read.
+     */
+    private int reference = SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX;
+
+    /**
+     * End positions of the kept reads, that may cover the next reads.
+     */
+    private PriorityQueue<Integer> ends = new PriorityQueue<>();
+
+    /**
+     * Reads with the same start position, that are waiting for the decision.
+     */
+    private List<SAMRecord> pending = new ArrayList<>();
+
+    /**
+     * Creates the limiter.
+     *
+     * @param maxDepth Maximal number of the kept reads covering any position, or 0 to keep all the reads.
+     */
+    DepthLimiter(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Adds the read. Reads must be added in the order of their reference and start positions.
+     * Kept reads are passed to the consumer, as soon as all the reads with the same start are added.
+     *
+     * @param record   Read from the file.
+     * @param consumer Consumer of the kept reads.
+     */
+    void add(SAMRecord record, Consumer<SAMRecord> consumer) {
+        if (maxDepth == 0) {
+            consumer.accept(record);
+            return;
+        }
+        int referenceIndex = record.getReferenceIndex();
+        if (referenceIndex != reference) {
+            flush(consumer);
+            // reads from the other reference don't cover this one
+            ends.clear();
+            reference = referenceIndex;
+        } else if (!pending.isEmpty() && pending.get(0).getAlignmentStart() != record.getAlignmentStart()) {
+            flush(consumer);
+        }
+        pending.add(record);
+    }
+
+    /**
+     * Decides on the pending reads. Must be called after the last read was added.
+     *
+     * @param consumer Consumer of the kept reads.
+     */
+    void flush(Consumer<SAMRecord> consumer) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        int start = pending.get(0).getAlignmentStart();
+        // reads, that end before this position, don't cover it
+        while (!ends.isEmpty() && ends.peek() < start) {
+            ends.poll();
+        }
+        if (pending.size() > 1 && ends.size() + pending.size() > maxDepth) {
+            // sort is stable, so reads with the same hash keep the order in the file
+            pending.sort(Comparator.comparingInt(record -> hash(record.getReadName())));
+        }
+        for (SAMRecord record : pending) {
+            if (ends.size() < maxDepth) {
+                ends.add(record.getAlignmentEnd());
+                consumer.accept(record);
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * Calculates the well mixed hash of the read name.
+     *
+     * @param name Name of the read.
+     * @return Hash of the name.
+     */
+    private static int hash(String name) {
+        // finalizer of the MurmurHash3
+        int h = name != null ? name.hashCode() : 0;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package bam.regular;
+
+import genome.assembly.AlignedRead;
+import genome.assembly.SAMRecordList;
+import htsjdk.samtools.SAMRecord;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Routes the reads, that are sorted by their start position, to the features
+ * from the same chromosome they overlap. Features are activated, when the first
+ * read that may overlap them appears, and are passed to the consumer as soon
+ * as no further read can overlap them.
+ *
+ * @author Sergey Khvatov
+ */
+class FeatureReadRouter {
+
+    /**
+     * Features, sorted by the start position.
+     */
+    private List<BEDFeature> features;
+
+    /**
+     * Index of the first feature, that was not activated yet.
+     */
+    private int nextFeature = 0;
+
+    /**
+     * Features, that may be overlapped by the next reads.
+     */
+    private List<BEDFeature> active = new ArrayList<>();
+
+    /**
+     * Reads, that overlap each of the active features.
+     */
+    private Map<BEDFeature, List<AlignedRead>> reads = new IdentityHashMap<>();
+
+    /**
+     * Consumer of the features, that will not be overlapped by any other read.
+     */
+    private BiConsumer<BEDFeature, SAMRecordList> consumer;
+
+    /**
+     * Creates a router for the features from the same chromosome.
+     *
+     * @param features Features from the same chromosome.
+     * @param consumer Consumer of the features and the reads overlapping them.
+     */
+    FeatureReadRouter(List<BEDFeature> features, BiConsumer<BEDFeature, SAMRecordList> consumer) {
+        this.features = new ArrayList<>(features);
+        this.features.sort(Comparator.comparingInt(BEDFeature::getStartPos));
+        this.consumer = consumer;
+    }
+
+    /**
+     * Adds the read to all the features it overlaps. Reads must be added
+     * in the order of their start positions.
+     *
+     * @param record Read from the BAM file.
+     */
+    void add(SAMRecord record) {
+        int start = record.getStart(), end = record.getEnd();
+        // no further read can overlap the features, that end before this one starts
+        retireBefore(start);
+
+        // activate the features, that start before this read ends
+        while (nextFeature < features.size() && features.get(nextFeature).getStartPos() <= end) {
+            BEDFeature feature = features.get(nextFeature++);
+            active.add(feature);
+            reads.put(feature, new ArrayList<>());
+        }
+
+        // the same compact read is shared by all the features it overlaps
+        AlignedRead read = null;
+        for (BEDFeature feature : active) {
+            if (feature.getStartPos() <= end && feature.getEndPos() >= start) {
+                if (read == null) {
+                    read = new AlignedRead(record);
+                }
+                reads.get(feature).add(read);
+            }
+        }
+    }
+
+    /**
+     * Passes all the remaining features to the consumer. Must be
+     * called after the last read was added.
+     */
+    void finish() {
+        retireBefore(Integer.MAX_VALUE);
+        while (nextFeature < features.size()) {
+            consumer.accept(features.get(nextFeature++), new SAMRecordList());
+        }
+    }
+
+    /**
+     * Passes the active features, that end before the position, to the consumer.
+     *
+     * @param position Start position of the current read.
+     */
+    private void retireBefore(int position) {
+        Iterator<BEDFeature> iterator = active.iterator();
+        while (iterator.hasNext()) {
+            BEDFeature feature = iterator.next();
+            if (feature.getEndPos() < position) {
+                iterator.remove();
+                consumer.accept(feature, new SAMRecordList(reads.remove(feature)));
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package bam.regular;
+
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.CloseableIterator;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over the records read from the span of the file, that skips the records,
+ * which don't overlap any of the intervals, and stops after the last interval.
+ *
+ * @author Sergey Khvatov
+ */
+class IntervalFilteringIterator implements CloseableIterator<SAMRecord> {
+
+    /**
+     * Records read from the span of the file, sorted by coordinate.
+     */
+    private CloseableIterator<SAMRecord> records;
+
+    /**
+     * Sorted non-overlapping intervals.
+     */
+    private QueryInterval[] intervals;
+
+    /**
+     * Index of the first interval, that may be overlapped by the next records.
+     */
+    private int current = 0;
+
+    /**
+     * Next record overlapping the intervals.
+     */
+    private SAMRecord next;
+
+    /**
+     * Creates the iterator.
+     *
+     * @param records   Records read from the span of the file, sorted by coordinate.
+     * @param intervals Sorted non-overlapping intervals.
+     */
+    IntervalFilteringIterator(CloseableIterator<SAMRecord> records, QueryInterval[] intervals) {
+        this.records = records;
+        this.intervals = intervals;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && current < intervals.length && records.hasNext()) {
+            SAMRecord record = records.next();
+            int reference = record.getReferenceIndex();
+            if (reference == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+                // only the unplaced reads are left
+                current = intervals.length;
+                break;
+            }
+            int start = record.getAlignmentStart();
+            // no further record can overlap the intervals, that end before this one starts
+            while (current < intervals.length && (intervals[current].referenceIndex < reference
+                || intervals[current].referenceIndex == reference && intervals[current].end > 0 && intervals[current].end < start)) {
+                current++;
+            }
+            if (current < intervals.length && intervals[current].referenceIndex == reference
+                && intervals[current].start <= Math.max(start, record.getAlignmentEnd())) {
+                next = record;
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public SAMRecord next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        SAMRecord record = next;
+        next = null;
+        return record;
+    }
+
+    @Override
+    public void close() {
+        records.close();
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package bam.regular;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Seekable stream, that reads the file through its memory mapping, so the
+ * random access reads are served straight from the page cache. The mapping
+ * of each file is created once per process and is shared by all the streams
+ * opened for this file, each stream has only its own position.
+ *
+ * @author Sergey Khvatov
+ */
+public class MappedSeekableStream extends SeekableStream {
+
+    /**
+     * Maximum size of the one mapped segment of the file.
+     */
+    private static final int SEGMENT_SIZE = 1 << 30;
+
+    /**
+     * Mappings of the files, shared by all the streams.
+     */
+    private static final Map<String, Mapping> MAPPINGS = new ConcurrentHashMap<>();
+
+    /**
+     * Mapping of the file.
+     */
+    private Mapping mapping;
+
+    /**
+     * Views of the mapped segments with the own positions of this stream.
+     */
+    private ByteBuffer[] views;
+
+    /**
+     * Current position in the file.
+     */
+    private long position = 0;
+
+    /**
+     * Creates the stream from the shared mapping of the file.
+     *
+     * @param mapping Mapping of the file.
+     */
+    private MappedSeekableStream(Mapping mapping) {
+        this.mapping = mapping;
+        this.views = new ByteBuffer[mapping.segments.length];
+    }
+
+    /**
+     * Opens the stream for the file. If the file was already mapped and
+     * was not modified since then, then the existing mapping is reused.
+     *
+     * @param file File to open.
+     * @return New stream positioned at the start of the file.
+     * @throws IOException if error occurs while mapping the file.
+     */
+    public static MappedSeekableStream open(File file) throws IOException {
+        String path = file.getCanonicalPath();
+        Mapping mapping = MAPPINGS.get(path);
+        if (mapping == null || mapping.length != file.length() || mapping.lastModified != file.lastModified()) {
+            mapping = new Mapping(file);
+            MAPPINGS.put(path, mapping);
+        }
+        return new MappedSeekableStream(mapping);
+    }
+
+    @Override
+    public long length() {
+        return mapping.length;
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        if (position < 0 || position > mapping.length) {
+            throw new IOException("position " + position + " is outside of the file " + mapping.source);
+        }
+        this.position = position;
+    }
+
+    @Override
+    public int read() {
+        if (position >= mapping.length) {
+            return -1;
+        }
+        ByteBuffer view = view((int) (position / SEGMENT_SIZE));
+        return view.get((int) (position++ % SEGMENT_SIZE)) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (position >= mapping.length) {
+            return -1;
+        }
+        int total = 0;
+        // the read may span several segments
+        while (total < length && position < mapping.length) {
+            ByteBuffer view = view((int) (position / SEGMENT_SIZE));
+            view.position((int) (position % SEGMENT_SIZE));
+            int count = Math.min(length - total, view.remaining());
+            view.get(buffer, offset + total, count);
+            total += count;
+            position += count;
+        }
+        return total;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, mapping.length - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, mapping.length - position);
+    }
+
+    @Override
+    public boolean eof() {
+        return position >= mapping.length;
+    }
+
+    @Override
+    public String getSource() {
+        return mapping.source;
+    }
+
+    /**
+     * Closes the stream. The mapping stays alive for the other streams.
+     */
+    @Override
+    public void close() {
+        views = new ByteBuffer[mapping.segments.length];
+    }
+
+    /**
+     * Returns the view of the segment, creating it if needed.
+     *
+     * @param segment Index of the segment.
+     * @return View of the segment with the own position.
+     */
+    private ByteBuffer view(int segment) {
+        if (views[segment] == null) {
+            views[segment] = mapping.segments[segment].duplicate();
+        }
+        return views[segment];
+    }
+
+    /**
+     * Read only memory mapping of the whole file split into segments.
+     */
+    private static class Mapping {
+
+        /**
+         * Path to the file.
+         */
+        private final String source;
+
+        /**
+         * Length of the file at the moment of mapping.
+         */
+        private final long length;
+
+        /**
+         * Last modification time of the file at the moment of mapping.
+         */
+        private final long lastModified;
+
+        /**
+         * Mapped segments of the file.
+         */
+        private final MappedByteBuffer[] segments;
+
+        /**
+         * Maps the whole file.
+         *
+         * @param file File to map.
+         * @throws IOException if error occurs while mapping the file.
+         */
+        private Mapping(File file) throws IOException {
+            this.source = file.getPath();
+            this.lastModified = file.lastModified();
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+                 FileChannel channel = randomAccessFile.getChannel()) {
+                this.length = channel.size();
+                this.segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+                for (int i = 0; i < segments.length; i++) {
+                    long start = (long) i * SEGMENT_SIZE;
+                    // mapping stays valid after the channel is closed
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+                }
+            }
+        }
+    }
+}
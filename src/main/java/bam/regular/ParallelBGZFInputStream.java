@@ -0,0 +1,294 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package bam.regular;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Input stream, that decompresses the BGZF blocks of the BAM file ahead of
+ * the consumer. Compressed blocks are read sequentially by the calling thread,
+ * inflated in parallel by the thread pool and returned in the original order.
+ *
+ * @author Sergey Khvatov
+ */
+class ParallelBGZFInputStream extends InputStream {
+
+    /**
+     * Length of the fixed part of the BGZF block header, including XLEN field.
+     */
+    private static final int BLOCK_HEADER_LENGTH = 12;
+
+    /**
+     * Length of the block footer: CRC32 and ISIZE fields.
+     */
+    private static final int BLOCK_FOOTER_LENGTH = 8;
+
+    /**
+     * Inflater of each thread, that is reused between the blocks.
+     */
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    /**
+     * Stream with the compressed BGZF blocks.
+     */
+    private InputStream input;
+
+    /**
+     * Pool, where the blocks are inflated.
+     */
+    private ExecutorService inflaters;
+
+    /**
+     * Maximum number of the blocks, that are inflated ahead of the consumer.
+     */
+    private int readAhead;
+
+    /**
+     * Blocks, that are inflated or waiting to be inflated, in the order of the file.
+     */
+    private Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    /**
+     * Current decompressed block.
+     */
+    private byte[] block = new byte[0];
+
+    /**
+     * Position of the next byte in the current block.
+     */
+    private int offset = 0;
+
+    /**
+     * True, if all the compressed blocks were read from the input.
+     */
+    private boolean endOfInput = false;
+
+    /**
+     * Creates the stream from the compressed BGZF stream.
+     *
+     * @param input     Stream with the compressed BGZF blocks.
+     * @param inflaters Pool, where the blocks are inflated.
+     * @param readAhead Maximum number of the blocks, that are inflated ahead of the consumer.
+     */
+    ParallelBGZFInputStream(InputStream input, ExecutorService inflaters, int readAhead) {
+        this.input = input;
+        this.inflaters = inflaters;
+        this.readAhead = readAhead;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (offset == block.length && !nextBlock()) {
+            return -1;
+        }
+        return block[offset++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (offset == block.length && !nextBlock()) {
+            return -1;
+        }
+        int count = Math.min(len, block.length - offset);
+        System.arraycopy(block, offset, buffer, off, count);
+        offset += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return block.length - offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        input.close();
+    }
+
+    /**
+     * Switches to the next non-empty decompressed block.
+     *
+     * @return false, if there are no more blocks.
+     * @throws IOException if error occurs while reading or inflating the block.
+     */
+    private boolean nextBlock() throws IOException {
+        do {
+            fillReadAhead();
+            Future<byte[]> future = pending.poll();
+            if (future == null) {
+                return false;
+            }
+            try {
+                block = future.get();
+            } catch (InterruptedException iex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while inflating the BGZF block", iex);
+            } catch (ExecutionException eex) {
+                throw new IOException("error occurred while inflating the BGZF block", eex.getCause());
+            }
+            offset = 0;
+        } while (block.length == 0);
+        return true;
+    }
+
+    /**
+     * Reads the compressed blocks and submits them to the pool,
+     * until the read ahead queue is full.
+     *
+     * @throws IOException if error occurs while reading the block.
+     */
+    private void fillReadAhead() throws IOException {
+        while (!endOfInput && pending.size() < readAhead) {
+            byte[] compressed = readCompressedBlock();
+            if (compressed == null) {
+                endOfInput = true;
+            } else {
+                pending.add(inflaters.submit(() -> inflate(compressed)));
+            }
+        }
+    }
+
+    /**
+     * Reads the next compressed BGZF block from the input.
+     *
+     * @return Whole compressed block, or null at the end of the input.
+     * @throws IOException if the block is invalid or truncated.
+     */
+    private byte[] readCompressedBlock() throws IOException {
+        byte[] header = new byte[BLOCK_HEADER_LENGTH];
+        int read = readFully(header, 0, header.length);
+        if (read == 0) {
+            return null;
+        }
+        if (read < header.length || header[0] != 31 || (header[1] & 0xFF) != 139 || header[2] != 8 || (header[3] & 4) == 0) {
+            throw new IOException("invalid BGZF block header");
+        }
+        byte[] extra = new byte[unsignedShort(header, 10)];
+        if (readFully(extra, 0, extra.length) < extra.length) {
+            throw new EOFException("truncated BGZF block header");
+        }
+
+        // find the BC subfield with the size of the block
+        int blockSize = -1;
+        for (int i = 0; i + 4 <= extra.length; i += 4 + unsignedShort(extra, i + 2)) {
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && unsignedShort(extra, i + 2) == 2) {
+                blockSize = unsignedShort(extra, i + 4) + 1;
+            }
+        }
+        if (blockSize < header.length + extra.length + BLOCK_FOOTER_LENGTH) {
+            throw new IOException("invalid BGZF block size");
+        }
+
+        byte[] compressed = new byte[blockSize];
+        System.arraycopy(header, 0, compressed, 0, header.length);
+        System.arraycopy(extra, 0, compressed, header.length, extra.length);
+        int start = header.length + extra.length;
+        if (readFully(compressed, start, blockSize - start) < blockSize - start) {
+            throw new EOFException("truncated BGZF block");
+        }
+        return compressed;
+    }
+
+    /**
+     * Inflates the compressed BGZF block.
+     *
+     * @param compressed Whole compressed block.
+     * @return Decompressed data of the block.
+     * @throws IOException if the compressed data is invalid.
+     */
+    private static byte[] inflate(byte[] compressed) throws IOException {
+        int dataStart = BLOCK_HEADER_LENGTH + unsignedShort(compressed, 10);
+        int dataLength = compressed.length - dataStart - BLOCK_FOOTER_LENGTH;
+        int size = (compressed[compressed.length - 4] & 0xFF) | (compressed[compressed.length - 3] & 0xFF) << 8
+            | (compressed[compressed.length - 2] & 0xFF) << 16 | (compressed[compressed.length - 1] & 0xFF) << 24;
+
+        byte[] data = new byte[size];
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(compressed, dataStart, dataLength);
+        try {
+            int inflated = 0;
+            while (inflated < size && !inflater.finished()) {
+                int count = inflater.inflate(data, inflated, size - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != size) {
+                throw new IOException("size of the inflated BGZF block doesn't match ISIZE");
+            }
+        } catch (DataFormatException dfex) {
+            throw new IOException("invalid deflate data in the BGZF block", dfex);
+        }
+        return data;
+    }
+
+    /**
+     * Reads the bytes from the input until the buffer is full or the input ends.
+     *
+     * @param buffer Buffer to read the bytes to.
+     * @param off    Offset in the buffer.
+     * @param len    Number of bytes to read.
+     * @return Number of bytes, that were read.
+     * @throws IOException if error occurs while reading.
+     */
+    private int readFully(byte[] buffer, int off, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int count = input.read(buffer, off + total, len - total);
+            if (count < 0) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @param buffer Buffer with the little-endian data.
+     * @param index  Index of the first byte.
+     * @return Unsigned 16-bit integer.
+     */
+    private static int unsignedShort(byte[] buffer, int index) {
+        return (buffer[index] & 0xFF) | (buffer[index + 1] & 0xFF) << 8;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package bam.regular;
+
+import htsjdk.samtools.SAMFlag;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.ValidationStringency;
+
+import java.io.File;
+
+/**
+ * Defines a public class with the options of reading the BAM and CRAM files:
+ * filters of the reads, limit of the depth, validation stringency of the records,
+ * decompression of the BGZF blocks, the way the files are accessed and the reference
+ * of CRAM files.
+ * Reads are filtered by their fixed fields, before the lazily decoded
+ * parts of the record (CIGAR, bases, qualities) are accessed.
+ *
+ * @author Sergey Khvatov
+ */
+public class ReaderOptions {
+
+    /**
+     * Reads with the lower mapping quality are skipped.
+     */
+    public int minMappingQuality = 0;
+
+    /**
+     * Reads with any of these SAM flags are skipped.
+     */
+    public int excludedFlags = 0;
+
+    /**
+     * Validation stringency of the records read from the BAM file.
+     */
+    public ValidationStringency validationStringency = ValidationStringency.STRICT;
+
+    /**
+     * Number of threads, that decompress the BGZF blocks ahead of the reader,
+     * or 0 to decompress them in the reading thread.
+     */
+    public int decompressionThreads = 0;
+
+    /**
+     * If true, then the BAM files are read through the memory mapping,
+     * that is shared by all the readers of the same file.
+     */
+    public boolean memoryMapped = false;
+
+    /**
+     * Maximal number of the reads covering any position, the reads beyond it are
+     * downsampled while the file is read, or 0 if the depth isn't limited.
+     */
+    public int maxDepth = 0;
+
+    /**
+     * FASTA file of the reference, that the CRAM files were compressed against,
+     * or null to use the reference defined by the htsjdk defaults.
+     */
+    public File referenceFile = null;
+
+    /**
+     * Maximal number of the decoded CRAM containers, that are cached per file
+     * to be reused by the neighbouring features.
+     */
+    public int cachedContainers = 16;
+
+    /**
+     * Checks if the read passes the filters. Unmapped reads are always skipped.
+     *
+     * @param record Record from the BAM file.
+     * @return true, if the read should be kept.
+     */
+    public boolean accept(SAMRecord record) {
+        int flags = record.getFlags();
+        return (flags & (excludedFlags | SAMFlag.READ_UNMAPPED.intValue())) == 0 && record.getMappingQuality() >= minMappingQuality;
+    }
+}
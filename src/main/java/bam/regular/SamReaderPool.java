@@ -0,0 +1,378 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package bam.regular;
+
+import exception.GenomeFileException;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.SamStreams;
+import htsjdk.samtools.util.CloseableIterator;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pool of the long-lived {@link SamReader} objects opened for one BAM or CRAM file.
+ * Each reader is confined to the thread, which has leased it, until it is
+ * released back to the pool, so the header and the index of the BAM file
+ * are read once per reader instead of once per query.
+ *
+ * @author Sergey Khvatov
+ */
+public class SamReaderPool implements Closeable {
+
+    /**
+     * Name of the file, that denotes the standard input.
+     */
+    public static final String STANDARD_INPUT = "-";
+
+    /**
+     * Number of the BGZF blocks, that are inflated ahead of the reader per decompression thread.
+     */
+    private static final int READ_AHEAD_BLOCKS_PER_THREAD = 4;
+
+    /**
+     * BAM file the readers are opened for.
+     */
+    private File BAMFile;
+
+    /**
+     * Factory that is used to open new readers.
+     */
+    private SamReaderFactory factory;
+
+    /**
+     * Validation stringency, decompression and access options.
+     */
+    private ReaderOptions options;
+
+    /**
+     * Pool, where the BGZF blocks are inflated in the sequential reading.
+     */
+    private ExecutorService inflaters;
+
+    /**
+     * Index of the BAM file, that is shared by all the readers.
+     */
+    private volatile SharedBAMIndex sharedIndex;
+
+    /**
+     * Cache of the decoded containers of the CRAM file.
+     */
+    private volatile CRAMContainerCache containerCache;
+
+    /**
+     * True, if the shared index or the CRAI index was already looked up.
+     */
+    private volatile boolean indexLoaded = false;
+
+    /**
+     * Readers that are opened and are not leased by any thread.
+     */
+    private Queue<SamReader> idleReaders = new ConcurrentLinkedQueue<>();
+
+    /**
+     * All the readers opened by this pool.
+     */
+    private Queue<SamReader> openedReaders = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates an empty pool for the BAM file. Readers are opened lazily.
+     *
+     * @param BAMFile BAM file the readers will be opened for.
+     */
+    public SamReaderPool(File BAMFile) {
+        this(BAMFile, new ReaderOptions());
+    }
+
+    /**
+     * Creates an empty pool for the BAM file with the options of reading it.
+     * Readers are opened lazily.
+     *
+     * @param BAMFile BAM file the readers will be opened for.
+     * @param options Validation stringency, decompression and access options.
+     */
+    public SamReaderPool(File BAMFile, ReaderOptions options) {
+        this.BAMFile = BAMFile;
+        this.options = options;
+        // indexed queries read ahead with htsjdk asynchronous BGZF stream
+        this.factory = SamReaderFactory.makeDefault()
+            .enable(SamReaderFactory.Option.CACHE_FILE_BASED_INDEXES)
+            .validationStringency(options.validationStringency)
+            .setUseAsyncIo(options.decompressionThreads > 0);
+        if (options.referenceFile != null) {
+            this.factory = this.factory.referenceSequence(options.referenceFile);
+        }
+    }
+
+    /**
+     * Leases a reader from the pool. If there are no idle readers, then a new one is opened.
+     * Leased reader must be returned to the pool with {@link #release(SamReader)}.
+     *
+     * @return Reader, that can be used only by the calling thread until it is released.
+     * @throws GenomeFileException if the BAM file can't be opened.
+     */
+    public SamReader lease() {
+        if (isStandardInput()) {
+            throw new GenomeFileException(this.getClass().getName(), "lease", BAMFile.getName(), "standard input, that can't be queried using the index");
+        }
+        SamReader reader = idleReaders.poll();
+        if (reader == null) {
+            if (options.memoryMapped) {
+                // queries use the shared index, so the reader doesn't need its own one
+                reader = factory.open(SamInputResource.of(openMapped("lease")));
+            } else {
+                reader = factory.open(BAMFile);
+            }
+            openedReaders.add(reader);
+        }
+        return reader;
+    }
+
+    /**
+     * Queries the records overlapping the intervals using the reader leased from this pool.
+     * If the BAM file has a BAI or CSI index, then the index shared by all the readers of
+     * this file is used. If the CRAM file has a CRAI index, then the containers are taken
+     * from the cache of the decoded containers. Otherwise the query is done by the reader itself.
+     *
+     * @param reader    Reader, that was leased from this pool.
+     * @param intervals Sorted non-overlapping intervals.
+     * @return Iterator over the records overlapping the intervals, that must be closed.
+     * @throws GenomeFileException if error occurs while reading the index.
+     */
+    public CloseableIterator<SAMRecord> query(SamReader reader, QueryInterval[] intervals) {
+        loadIndex();
+        CRAMContainerCache cache = containerCache;
+        if (cache != null) {
+            return cache.query(reader, intervals);
+        }
+        SharedBAMIndex index = sharedIndex;
+        if (index != null) {
+            return new IntervalFilteringIterator(reader.indexing().iterator(index.getSpan(intervals)), intervals);
+        }
+        return reader.query(intervals, false);
+    }
+
+    /**
+     * Loads the index of the BAM file, that is shared by all the readers, or
+     * the CRAI index of the CRAM file with the cache of its decoded containers.
+     *
+     * @throws GenomeFileException if error occurs while reading the index.
+     */
+    private void loadIndex() {
+        if (!indexLoaded) {
+            synchronized (this) {
+                if (!indexLoaded) {
+                    try {
+                        if (isCRAM()) {
+                            containerCache = CRAMContainerCache.open(BAMFile, options.cachedContainers);
+                        } else {
+                            sharedIndex = SharedBAMIndex.get(BAMFile);
+                        }
+                        indexLoaded = true;
+                    } catch (IOException ioex) {
+                        GenomeFileException gfex = new GenomeFileException(this.getClass().getName(), "loadIndex", BAMFile.getName(), ioex.getMessage());
+                        gfex.initCause(ioex);
+                        throw gfex;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a new reader, that reads the BAM file sequentially from start
+     * to end without the index. Reader is not pooled and must be closed
+     * by the caller. If the decompression threads are used, then the BGZF
+     * blocks of the BAM file are inflated in parallel ahead of the caller,
+     * CRAM files are always read by the htsjdk reader.
+     *
+     * @return Reader of the BAM file or of the standard input.
+     * @throws GenomeFileException if the BAM file can't be opened.
+     */
+    public BAMStreamReader openSequential() {
+        InputStream input = null;
+        SamInputResource resource;
+        boolean CRAM = isCRAM();
+        if (isStandardInput()) {
+            input = new BufferedInputStream(System.in);
+            try {
+                CRAM = SamStreams.isCRAMFile(input);
+            } catch (IOException ioex) {
+                GenomeFileException gfex = new GenomeFileException(this.getClass().getName(), "openSequential", BAMFile.getName(), ioex.getMessage());
+                gfex.initCause(ioex);
+                throw gfex;
+            }
+            resource = SamInputResource.of(input);
+        } else if (options.memoryMapped) {
+            MappedSeekableStream stream = openMapped("openSequential");
+            input = stream;
+            resource = SamInputResource.of(stream);
+        } else {
+            resource = SamInputResource.of(BAMFile);
+        }
+
+        if (options.decompressionThreads == 0 || CRAM) {
+            return new BAMStreamReader(factory.open(resource));
+        }
+        try {
+            if (input == null) {
+                input = new FileInputStream(BAMFile);
+            }
+            return new BAMStreamReader(input, getInflaters(), READ_AHEAD_BLOCKS_PER_THREAD * options.decompressionThreads, options.validationStringency, BAMFile.getName());
+        } catch (IOException ioex) {
+            GenomeFileException gfex = new GenomeFileException(this.getClass().getName(), "openSequential", BAMFile.getName(), ioex.getMessage());
+            gfex.initCause(ioex);
+            throw gfex;
+        }
+    }
+
+    /**
+     * Opens the stream, that reads the BAM file through its shared memory mapping.
+     *
+     * @param method Name of the calling method, used in the error message.
+     * @return Stream positioned at the start of the file.
+     * @throws GenomeFileException if the BAM file can't be mapped.
+     */
+    private MappedSeekableStream openMapped(String method) {
+        try {
+            return MappedSeekableStream.open(BAMFile);
+        } catch (IOException ioex) {
+            GenomeFileException gfex = new GenomeFileException(this.getClass().getName(), method, BAMFile.getName(), ioex.getMessage());
+            gfex.initCause(ioex);
+            throw gfex;
+        }
+    }
+
+    /**
+     * Returns the pool, where the BGZF blocks are inflated, creating it if needed.
+     *
+     * @return Pool of the decompression threads.
+     */
+    private synchronized ExecutorService getInflaters() {
+        if (inflaters == null) {
+            inflaters = Executors.newFixedThreadPool(options.decompressionThreads, task -> {
+                Thread thread = new Thread(task, "bgzf-inflater");
+                // the threads must not prevent the program from exiting
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return inflaters;
+    }
+
+    /**
+     * Checks if the readers are opened for the standard input.
+     *
+     * @return true, if the BAM file is read from the standard input.
+     */
+    public boolean isStandardInput() {
+        return BAMFile.getPath().equals(STANDARD_INPUT);
+    }
+
+    /**
+     * Checks if the readers are opened for the CRAM file.
+     *
+     * @return true, if the file has the CRAM extension.
+     */
+    public boolean isCRAM() {
+        return BAMFile.getName().toLowerCase().endsWith("." + BAMParser.CRAM_EXTENSION);
+    }
+
+    /**
+     * Returns the leased reader back to the pool.
+     *
+     * @param reader Reader, that was leased from this pool.
+     */
+    public void release(SamReader reader) {
+        synchronized (this) {
+            if (openedReaders.contains(reader)) {
+                idleReaders.offer(reader);
+                return;
+            }
+        }
+        // pool was closed while the reader was leased
+        closeReader(reader);
+    }
+
+    /**
+     * Closes the idle readers opened by this pool. The readers, that are still
+     * leased, are closed when they are released. The pool may still be used
+     * after this call, new readers will be opened on demand.
+     *
+     * @throws GenomeFileException if error occurs while closing the readers.
+     */
+    @Override
+    public void close() {
+        List<SamReader> readers = new ArrayList<>();
+        synchronized (this) {
+            if (inflaters != null) {
+                inflaters.shutdownNow();
+                inflaters = null;
+            }
+            // decoded containers are dropped together with the readers
+            containerCache = null;
+            indexLoaded = false;
+            SamReader reader;
+            while ((reader = idleReaders.poll()) != null) {
+                readers.add(reader);
+            }
+            // leased readers are forgotten, so that they are closed on release
+            openedReaders.clear();
+        }
+        for (SamReader reader : readers) {
+            closeReader(reader);
+        }
+    }
+
+    /**
+     * Closes the reader.
+     *
+     * @param reader Reader to close.
+     * @throws GenomeFileException if error occurs while closing the reader.
+     */
+    private void closeReader(SamReader reader) {
+        try {
+            reader.close();
+        } catch (IOException ioex) {
+            GenomeFileException gfex = new GenomeFileException(this.getClass().getName(), "close", BAMFile.getName(), ioex.getMessage());
+            gfex.initCause(ioex);
+            throw gfex;
+        }
+    }
+}
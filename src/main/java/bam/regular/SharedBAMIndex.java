@@ -0,0 +1,418 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package bam.regular;
+
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.Chunk;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BAI or CSI index of the BAM file, that is loaded once per process and is
+ * shared read-only by all the readers of this file. Bins, chunks and the
+ * linear index of each reference are stored in the primitive arrays, and
+ * the chunks overlapping the interval are found with the binary search.
+ * CSI indexes support the references longer than 512 Mb.
+ *
+ * @author Sergey Khvatov
+ */
+public class SharedBAMIndex {
+
+    /**
+     * Extension of the BAI index files.
+     */
+    private static final String BAI_EXTENSION = ".bai";
+
+    /**
+     * Extension of the CSI index files.
+     */
+    private static final String CSI_EXTENSION = ".csi";
+
+    /**
+     * Minimal shift and depth of the binning scheme of the BAI indexes.
+     */
+    private static final int BAI_MIN_SHIFT = 14, BAI_DEPTH = 5;
+
+    /**
+     * Indexes, that are already loaded, by the path to the index file.
+     */
+    private static final Map<String, SharedBAMIndex> INDEXES = new ConcurrentHashMap<>();
+
+    /**
+     * Length and last modification time of the index file at the moment of loading.
+     */
+    private final long length, lastModified;
+
+    /**
+     * Number of bits of the positions in the bins of the finest level.
+     */
+    private final int minShift;
+
+    /**
+     * Number of the levels of the binning scheme, excluding the root one.
+     */
+    private final int depth;
+
+    /**
+     * Index of each reference.
+     */
+    private final ReferenceIndex[] references;
+
+    /**
+     * Returns the shared index of the BAM file, loading it if needed. The index is
+     * looked up next to the BAM file: {@code file.bam.bai}, {@code file.bai},
+     * {@code file.bam.csi} or {@code file.csi}. If the index file was modified
+     * since it was loaded, then it is loaded again.
+     *
+     * @param BAMFile BAM file.
+     * @return Index of the BAM file, or null if the file has no index.
+     * @throws IOException if error occurs while reading the index.
+     */
+    public static SharedBAMIndex get(File BAMFile) throws IOException {
+        File indexFile = findIndex(BAMFile);
+        if (indexFile == null) {
+            return null;
+        }
+        String path = indexFile.getCanonicalPath();
+        SharedBAMIndex index = INDEXES.get(path);
+        if (index == null || index.length != indexFile.length() || index.lastModified != indexFile.lastModified()) {
+            // concurrent loads of the same index are harmless, one of them is kept
+            index = new SharedBAMIndex(indexFile);
+            INDEXES.put(path, index);
+        }
+        return index;
+    }
+
+    /**
+     * Loads the index from the BAI or CSI file.
+     *
+     * @param indexFile BAI or CSI file.
+     * @throws IOException if error occurs while reading the index.
+     */
+    private SharedBAMIndex(File indexFile) throws IOException {
+        this.length = indexFile.length();
+        this.lastModified = indexFile.lastModified();
+        try (DataInputStream in = new DataInputStream(open(indexFile))) {
+            byte[] magic = new byte[4];
+            in.readFully(magic);
+            boolean csi;
+            if (Arrays.equals(magic, new byte[]{'B', 'A', 'I', 1})) {
+                csi = false;
+                minShift = BAI_MIN_SHIFT;
+                depth = BAI_DEPTH;
+            } else if (Arrays.equals(magic, new byte[]{'C', 'S', 'I', 1})) {
+                csi = true;
+                minShift = readInt(in);
+                depth = readInt(in);
+                // auxiliary data is not used
+                skipFully(in, readInt(in));
+            } else {
+                throw new IOException("unknown format of the index file " + indexFile.getPath());
+            }
+
+            // bin, that stores the metadata of the reference, instead of the chunks
+            int pseudoBin = binFirst(depth + 1) + 1;
+            references = new ReferenceIndex[readInt(in)];
+            for (int i = 0; i < references.length; i++) {
+                references[i] = new ReferenceIndex(in, csi, pseudoBin);
+            }
+        }
+    }
+
+    /**
+     * Returns the span of the file, that contains all the reads overlapping the interval.
+     *
+     * @param referenceIndex Index of the reference.
+     * @param start          1-based inclusive start of the interval.
+     * @param end            1-based inclusive end of the interval.
+     * @return Span of the file, that may be empty.
+     */
+    public BAMFileSpan getSpan(int referenceIndex, int start, int end) {
+        return getSpan(new QueryInterval[]{new QueryInterval(referenceIndex, start, end)});
+    }
+
+    /**
+     * Returns the span of the file, that contains all the reads overlapping any of the intervals.
+     *
+     * @param intervals Intervals with 1-based inclusive positions.
+     * @return Span of the file, that may be empty.
+     */
+    public BAMFileSpan getSpan(QueryInterval[] intervals) {
+        List<Chunk> chunks = new ArrayList<>();
+        for (QueryInterval interval : intervals) {
+            if (interval.referenceIndex < 0 || interval.referenceIndex >= references.length) {
+                continue;
+            }
+            // intervals are converted to the 0-based half-open ones
+            long begin = Math.max(0, interval.start - 1);
+            long end = interval.end <= 0 ? 1L << (minShift + 3 * depth) : interval.end;
+            references[interval.referenceIndex].addChunks(begin, end, chunks);
+        }
+        return new BAMFileSpan(Chunk.optimizeChunkList(chunks, 0));
+    }
+
+    /**
+     * Looks up the index file next to the BAM file.
+     *
+     * @param BAMFile BAM file.
+     * @return Index file, or null if it doesn't exist.
+     */
+    private static File findIndex(File BAMFile) {
+        String path = BAMFile.getPath();
+        String base = path.toLowerCase().endsWith(".bam") ? path.substring(0, path.length() - 4) : path;
+        for (String candidate : new String[]{path + BAI_EXTENSION, base + BAI_EXTENSION, path + CSI_EXTENSION, base + CSI_EXTENSION}) {
+            File indexFile = new File(candidate);
+            if (indexFile.isFile()) {
+                return indexFile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens the index file. CSI files and some BAI files are BGZF compressed.
+     *
+     * @param indexFile Index file.
+     * @return Stream with the uncompressed index.
+     * @throws IOException if error occurs while opening the file.
+     */
+    private static InputStream open(File indexFile) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(indexFile));
+        in.mark(2);
+        int first = in.read(), second = in.read();
+        in.reset();
+        if (first == 31 && second == 139) {
+            return new BlockCompressedInputStream(in);
+        }
+        return in;
+    }
+
+    /**
+     * @param level Level of the binning scheme.
+     * @return Number of the first bin of the level.
+     */
+    private static int binFirst(int level) {
+        return ((1 << (3 * level)) - 1) / 7;
+    }
+
+    /**
+     * Reads the little-endian 32-bit integer.
+     */
+    private static int readInt(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+
+    /**
+     * Reads the little-endian 64-bit integer.
+     */
+    private static long readLong(DataInputStream in) throws IOException {
+        return Long.reverseBytes(in.readLong());
+    }
+
+    /**
+     * Skips the bytes of the stream.
+     */
+    private static void skipFully(DataInputStream in, int n) throws IOException {
+        if (in.skipBytes(n) != n) {
+            throw new EOFException("truncated index file");
+        }
+    }
+
+    /**
+     * Index of one reference.
+     */
+    private class ReferenceIndex {
+
+        /**
+         * Numbers of the bins in the ascending order.
+         */
+        private final int[] bins;
+
+        /**
+         * Index of the first chunk of each bin, with the total number of the chunks at the end.
+         */
+        private final int[] firstChunks;
+
+        /**
+         * Virtual file offsets of the starts of the chunks.
+         */
+        private final long[] chunkBegins;
+
+        /**
+         * Virtual file offsets of the ends of the chunks.
+         */
+        private final long[] chunkEnds;
+
+        /**
+         * Smallest virtual file offset of the reads in each bin (CSI only).
+         */
+        private final long[] binOffsets;
+
+        /**
+         * Smallest virtual file offset of the reads in each 16 kb window (BAI only).
+         */
+        private final long[] linearIndex;
+
+        /**
+         * Reads the index of the reference.
+         *
+         * @param in        Stream with the uncompressed index.
+         * @param csi       true, if it is the CSI index.
+         * @param pseudoBin Bin, that stores the metadata of the reference.
+         * @throws IOException if error occurs while reading the index.
+         */
+        private ReferenceIndex(DataInputStream in, boolean csi, int pseudoBin) throws IOException {
+            int binsNumber = readInt(in);
+            int[] binNumbers = new int[binsNumber];
+            long[] offsets = new long[binsNumber];
+            long[][] chunks = new long[binsNumber][];
+            int count = 0, chunksNumber = 0;
+            for (int i = 0; i < binsNumber; i++) {
+                int bin = readInt(in);
+                long offset = csi ? readLong(in) : 0;
+                long[] binChunks = new long[2 * readInt(in)];
+                for (int j = 0; j < binChunks.length; j++) {
+                    binChunks[j] = readLong(in);
+                }
+                if (bin == pseudoBin) {
+                    continue;
+                }
+                binNumbers[count] = bin;
+                offsets[count] = offset;
+                chunks[count++] = binChunks;
+                chunksNumber += binChunks.length / 2;
+            }
+
+            // sort the bins by their numbers to use the binary search
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (fst, scd) -> Integer.compare(binNumbers[fst], binNumbers[scd]));
+
+            bins = new int[count];
+            binOffsets = csi ? new long[count] : null;
+            firstChunks = new int[count + 1];
+            chunkBegins = new long[chunksNumber];
+            chunkEnds = new long[chunksNumber];
+            int chunk = 0;
+            for (int i = 0; i < count; i++) {
+                bins[i] = binNumbers[order[i]];
+                if (csi) {
+                    binOffsets[i] = offsets[order[i]];
+                }
+                firstChunks[i] = chunk;
+                long[] binChunks = chunks[order[i]];
+                for (int j = 0; j < binChunks.length; j += 2) {
+                    chunkBegins[chunk] = binChunks[j];
+                    chunkEnds[chunk++] = binChunks[j + 1];
+                }
+            }
+            firstChunks[count] = chunk;
+
+            if (csi) {
+                linearIndex = null;
+            } else {
+                linearIndex = new long[readInt(in)];
+                for (int i = 0; i < linearIndex.length; i++) {
+                    linearIndex[i] = readLong(in);
+                }
+            }
+        }
+
+        /**
+         * Adds the chunks, that may contain the reads overlapping the interval.
+         *
+         * @param begin  0-based inclusive start of the interval.
+         * @param end    0-based exclusive end of the interval.
+         * @param chunks List, where the chunks are added to.
+         */
+        private void addChunks(long begin, long end, List<Chunk> chunks) {
+            if (begin >= end) {
+                return;
+            }
+            long minOffset = getMinOffset(begin);
+            int shift = minShift + 3 * depth;
+            end = Math.min(end, 1L << shift) - 1;
+            // walk through all the levels from the root to the finest one
+            for (int level = 0; level <= depth; level++, shift -= 3) {
+                int first = binFirst(level);
+                for (long bin = first + (begin >> shift); bin <= first + (end >> shift); bin++) {
+                    int i = Arrays.binarySearch(bins, (int) bin);
+                    if (i < 0) {
+                        continue;
+                    }
+                    for (int j = firstChunks[i]; j < firstChunks[i + 1]; j++) {
+                        if (chunkEnds[j] > minOffset) {
+                            chunks.add(new Chunk(chunkBegins[j], chunkEnds[j]));
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the smallest virtual file offset of the reads, that may overlap the position.
+         *
+         * @param begin 0-based position.
+         * @return Virtual file offset.
+         */
+        private long getMinOffset(long begin) {
+            if (linearIndex != null) {
+                if (linearIndex.length == 0) {
+                    return 0;
+                }
+                return linearIndex[(int) Math.min(begin >> minShift, linearIndex.length - 1)];
+            }
+            // the closest existing bin at or to the left of the finest bin containing
+            // the position, moving up to the parent bins, in the same way as htslib does
+            long bin = binFirst(depth) + (begin >> minShift);
+            while (true) {
+                int i = Arrays.binarySearch(bins, (int) bin);
+                if (i >= 0) {
+                    return binOffsets[i];
+                }
+                if (bin == 0) {
+                    return 0;
+                }
+                long firstSibling = (((bin - 1) >> 3) << 3) + 1;
+                bin = bin > firstSibling ? bin - 1 : (bin - 1) >> 3;
+            }
+        }
+    }
+}
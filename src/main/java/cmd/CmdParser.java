@@ -23,10 +23,15 @@
  */
 package cmd;
 
+import bam.regular.QueryMode;
+import bam.regular.SamReaderPool;
 import exception.CommandLineException;
 import genome.compare.common.ComparatorType;
+import htsjdk.samtools.ValidationStringency;
 import org.apache.commons.cli.*;
 
+import java.io.File;
+
 /**
  * User input through command line parser.
  *
@@ -129,6 +134,137 @@ public class CmdParser {
             config.threadsNumber = threadsNum;
         }
 
+        // check if the way of querying the reads was changed
+        if (cmd.hasOption("qm")) {
+            String queryMode = cmd.getOptionValue("qm").toUpperCase();
+            switch (queryMode) {
+                case "I":
+                    config.comparisonOptions.queryMode = QueryMode.INDEXED;
+                    break;
+                case "B":
+                    config.comparisonOptions.queryMode = QueryMode.BATCH;
+                    break;
+                case "S":
+                    config.comparisonOptions.queryMode = QueryMode.STREAMING;
+                    break;
+                default:
+                    throw new CommandLineException(INCORRECT_INPUT_MESSAGE);
+            }
+        }
+
+        // check if the filters of the reads were changed
+        if (cmd.hasOption("mq")) {
+            int minMappingQuality = Integer.parseInt(cmd.getOptionValue("mq"));
+            if (minMappingQuality < 0) {
+                throw new CommandLineException(INCORRECT_INPUT_MESSAGE);
+            }
+            config.comparisonOptions.readerOptions.minMappingQuality = minMappingQuality;
+        }
+
+        if (cmd.hasOption("ef")) {
+            // flags may be passed both as decimal and hexadecimal numbers
+            int excludedFlags = Integer.decode(cmd.getOptionValue("ef"));
+            if (excludedFlags < 0) {
+                throw new CommandLineException(INCORRECT_INPUT_MESSAGE);
+            }
+            config.comparisonOptions.readerOptions.excludedFlags = excludedFlags;
+        }
+
+        // check if the depth of the pileup should be limited
+        if (cmd.hasOption("md")) {
+            int maxDepth = Integer.parseInt(cmd.getOptionValue("md"));
+            if (maxDepth < 0) {
+                throw new CommandLineException(INCORRECT_INPUT_MESSAGE);
+            }
+            config.comparisonOptions.readerOptions.maxDepth = maxDepth;
+        }
+
+        // check if validation stringency was changed
+        if (cmd.hasOption("vs")) {
+            try {
+                config.comparisonOptions.readerOptions.validationStringency = ValidationStringency.valueOf(cmd.getOptionValue("vs").toUpperCase());
+            } catch (IllegalArgumentException iaex) {
+                CommandLineException cmdex = new CommandLineException(INCORRECT_INPUT_MESSAGE);
+                cmdex.initCause(iaex);
+                throw cmdex;
+            }
+        }
+
+        // check if the number of decompression threads was changed
+        if (cmd.hasOption("dt")) {
+            int decompressionThreads = Integer.parseInt(cmd.getOptionValue("dt"));
+            if (decompressionThreads < 0) {
+                throw new CommandLineException(INCORRECT_INPUT_MESSAGE);
+            }
+            config.comparisonOptions.readerOptions.decompressionThreads = decompressionThreads;
+        }
+
+        // check if the BAM files should be memory mapped
+        if (cmd.hasOption("mm")) {
+            config.comparisonOptions.readerOptions.memoryMapped = true;
+        }
+
+        // check if the reference of the CRAM files was set
+        if (cmd.hasOption("r")) {
+            File referenceFile = new File(cmd.getOptionValue("r"));
+            if (!referenceFile.isFile()) {
+                throw new CommandLineException(INCORRECT_INPUT_MESSAGE);
+            }
+            config.comparisonOptions.readerOptions.referenceFile = referenceFile;
+        }
+
+        // check if the assembled regions should be cached
+        if (cmd.hasOption("cd")) {
+            File cacheDirectory = new File(cmd.getOptionValue("cd"));
+            if (cacheDirectory.exists() && !cacheDirectory.isDirectory()) {
+                throw new CommandLineException(INCORRECT_INPUT_MESSAGE);
+            }
+            config.comparisonOptions.cacheDirectory = cacheDirectory;
+        }
+
+        // check if the coverage statistics should be written
+        if (cmd.hasOption("cs")) {
+            File coverageDirectory = new File(cmd.getOptionValue("cs"));
+            if (coverageDirectory.exists() && !coverageDirectory.isDirectory()) {
+                throw new CommandLineException(INCORRECT_INPUT_MESSAGE);
+            }
+            config.comparisonOptions.coverageDirectory = coverageDirectory;
+        }
+
+        // check if the Levenshtein distance should be capped
+        if (cmd.hasOption("dc")) {
+            double maxDifference = Double.parseDouble(cmd.getOptionValue("dc"));
+            if (!(maxDifference >= 0 && maxDifference <= 100)) {
+                throw new CommandLineException(INCORRECT_INPUT_MESSAGE);
+            }
+            config.comparisonOptions.maxDifference = maxDifference;
+        }
+
+        // check if the genomes should be assembled off the heap
+        if (cmd.hasOption("oh")) {
+            config.comparisonOptions.offHeapAssembly = true;
+            if (cmd.getOptionValue("oh") != null) {
+                File offHeapDirectory = new File(cmd.getOptionValue("oh"));
+                if (!offHeapDirectory.isDirectory()) {
+                    throw new CommandLineException(INCORRECT_INPUT_MESSAGE);
+                }
+                config.comparisonOptions.offHeapDirectory = offHeapDirectory;
+            }
+        }
+
+        // standard input can be read only once and only in the streaming mode,
+        // son's genome is read twice, when three genomes are compared
+        int standardInputs = 0;
+        for (String path : new String[]{config.pathToFirstRecipient, config.pathToSecondRecipient, config.pathToThirdRecipient}) {
+            if (path.equals(SamReaderPool.STANDARD_INPUT)) {
+                standardInputs++;
+            }
+        }
+        if (standardInputs > 0 && (standardInputs > 1 || config.comparisonOptions.queryMode != QueryMode.STREAMING
+            || config.pathToThirdRecipient.equals(SamReaderPool.STANDARD_INPUT))) {
+            throw new CommandLineException(INCORRECT_INPUT_MESSAGE);
+        }
+
         return config;
     }
 
@@ -212,6 +348,127 @@ public class CmdParser {
                 .build()
         );
 
+        options.addOption(
+            Option.builder("qm")
+                .longOpt("queryMode")
+                .desc("Defines, how the reads are queried from the BAM files.")
+                .hasArg()
+                .numberOfArgs(1)
+                .argName("I> <B> <S")
+                .type(String.class)
+                .build()
+        );
+
+        options.addOption(
+            Option.builder("mq")
+                .longOpt("minMappingQuality")
+                .desc("Defines the minimal mapping quality of the reads.")
+                .argName("number")
+                .hasArg()
+                .type(Integer.class)
+                .build()
+        );
+
+        options.addOption(
+            Option.builder("ef")
+                .longOpt("excludeFlags")
+                .desc("Defines the SAM flags of the reads, that should be skipped.")
+                .argName("flags")
+                .hasArg()
+                .type(Integer.class)
+                .build()
+        );
+
+        options.addOption(
+            Option.builder("md")
+                .longOpt("maxDepth")
+                .desc("Defines the maximal number of the reads covering any position.")
+                .argName("number")
+                .hasArg()
+                .type(Integer.class)
+                .build()
+        );
+
+        options.addOption(
+            Option.builder("vs")
+                .longOpt("validationStringency")
+                .desc("Defines the validation stringency of the records from the BAM files.")
+                .hasArg()
+                .numberOfArgs(1)
+                .argName("STRICT> <LENIENT> <SILENT")
+                .type(String.class)
+                .build()
+        );
+
+        options.addOption(
+            Option.builder("dt")
+                .longOpt("decompressionThreads")
+                .desc("Defines number of threads that should be created to decompress the BAM files.")
+                .argName("number")
+                .hasArg()
+                .type(Integer.class)
+                .build()
+        );
+
+        options.addOption(
+            Option.builder("mm")
+                .longOpt("memoryMapped")
+                .desc("Defines, whether the BAM files should be read through the memory mapping.")
+                .hasArg(false)
+                .build()
+        );
+
+        options.addOption(
+            Option.builder("r")
+                .longOpt("reference")
+                .desc("Defines the FASTA file of the reference, that the CRAM files were compressed against.")
+                .argName("path to the file")
+                .hasArg()
+                .type(String.class)
+                .build()
+        );
+
+        options.addOption(
+            Option.builder("cd")
+                .longOpt("cacheDirectory")
+                .desc("Defines the directory, where the assembled genomes are cached between the runs.")
+                .argName("path to the directory")
+                .hasArg()
+                .type(String.class)
+                .build()
+        );
+
+        options.addOption(
+            Option.builder("cs")
+                .longOpt("coverageStatistics")
+                .desc("Defines the directory, where the coverage statistics of the features are written for each BAM file.")
+                .argName("path to the directory")
+                .hasArg()
+                .type(String.class)
+                .build()
+        );
+
+        options.addOption(
+            Option.builder("dc")
+                .longOpt("differenceCap")
+                .desc("Defines the maximal percentage of the differences in each region, up to which the Levenshtein distance is calculated exactly.")
+                .argName("percent")
+                .hasArg()
+                .type(String.class)
+                .build()
+        );
+
+        options.addOption(
+            Option.builder("oh")
+                .longOpt("offHeap")
+                .desc("Defines, whether the genomes should be assembled into the off-heap buffers, that may be mapped from the temporary files in the directory.")
+                .argName("path to the directory")
+                .hasArg()
+                .optionalArg(true)
+                .type(String.class)
+                .build()
+        );
+
         return options;
     }
 }
@@ -23,6 +23,7 @@
  */
 package cmd;
 
+import executors.ComparisonOptions;
 import genome.compare.common.ComparatorType;
 
 /**
@@ -87,4 +88,10 @@ public class Configuration {
      * Path to the file with graph - default null
      */
     public String path = null;
+
+    /**
+     * Options, which define how the genomes are read,
+     * assembled and compared.
+     */
+    public ComparisonOptions comparisonOptions = new ComparisonOptions();
 }
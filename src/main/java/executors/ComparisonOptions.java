@@ -0,0 +1,89 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package executors;
+
+import bam.regular.QueryMode;
+import bam.regular.ReaderOptions;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Defines a public class with the options, which define how
+ * the genomes are read from the files, assembled and compared.
+ *
+ * @author Sergey Khvatov
+ */
+public class ComparisonOptions {
+
+    /**
+     * Defines how the reads are queried from the BAM files.
+     */
+    public QueryMode queryMode = QueryMode.INDEXED;
+
+    /**
+     * Filters of the reads and validation stringency of the BAM files.
+     */
+    public ReaderOptions readerOptions = new ReaderOptions();
+
+    /**
+     * Directory, where the assembled regions of each BAM file are cached
+     * between the runs, or null if they shouldn't be cached.
+     */
+    public File cacheDirectory = null;
+
+    /**
+     * Directory, where the coverage statistics of the features are
+     * written for each BAM file, or null if they shouldn't be written.
+     */
+    public File coverageDirectory = null;
+
+    /**
+     * True, if the genomes are assembled into the off-heap consensus buffers.
+     */
+    public boolean offHeapAssembly = false;
+
+    /**
+     * Directory, where the off-heap consensus buffers are mapped from the temporary
+     * files, or null if they are allocated as the direct buffers.
+     */
+    public File offHeapDirectory = null;
+
+    /**
+     * Maximal percentage of the differences in each region, up to which the Levenshtein
+     * distance is calculated exactly, the regions, that differ more, are counted as if
+     * they differed by one nucleotide more than the cap.
+     */
+    public double maxDifference = 100d;
+
+    /**
+     * Files of the coverage statistics, that were already written by the comparisons using
+     * these options, so that the statistics of the son, who is compared with both parents,
+     * are written once.
+     */
+    Set<File> writtenStatistics = Collections.synchronizedSet(new HashSet<>());
+}
@@ -56,14 +56,15 @@ public class FeatureCallable implements Callable<List<ComparisonResult>> {
     private static final int ASSEMBLY_THREADS_NUM = 2;
 
     /**
-     * Index of the genome of the first person in the list.
+     * Maximal number of the regions of each person, that are assembled,
+     * but not compared yet, and of the comparisons, that are not finished.
      */
-    private static final int FIRST_PERSON = 0;
+    private static final int REGIONS_WINDOW = 32;
 
     /**
-     * Index of the genome of the second person in the list.
+     * Marks the end of the regions of one person.
      */
-    private static final int SECOND_PERSON = 1;
+    private static final GenomeRegion END_OF_REGIONS = new GenomeRegion("", 0, "", new byte[0], "");
 
     /**
      * Logger that is used to write down the information about feature processing.
@@ -76,14 +77,14 @@ public class FeatureCallable implements Callable<List<ComparisonResult>> {
     private BEDFeature feature;
 
     /**
-     * First person's BAM file parser.
+     * First person's genome assembly task.
      */
-    private BAMParser firstBAMFile;
+    private GenomeAssemblyCallable firstAssembly;
 
     /**
-     * Second person's BAM file parser.
+     * Second person's genome assembly task.
      */
-    private BAMParser secondBAMFile;
+    private GenomeAssemblyCallable secondAssembly;
 
     /**
      * Number of assembling threads.
@@ -102,6 +103,12 @@ public class FeatureCallable implements Callable<List<ComparisonResult>> {
      */
     private ComparatorType mode;
 
+    /**
+     * Maximal percentage of the differences in each region,
+     * up to which the Levenshtein distance is calculated exactly.
+     */
+    private double maxDifference;
+
     /**
      * Creates a feature thread using the following arguments.
      *
@@ -114,10 +121,44 @@ public class FeatureCallable implements Callable<List<ComparisonResult>> {
      *                         else - only the main chromosome results will be obtained
      */
     public FeatureCallable(BEDFeature feature, BAMParser firstParser, BAMParser secondParser, ComparatorType type, int threadsNumber, boolean additionalOutput) {
+        this(feature, new GenomeAssemblyCallable(firstParser, feature), new GenomeAssemblyCallable(secondParser, feature), type, threadsNumber, additionalOutput);
+    }
+
+    /**
+     * Creates a feature thread from the tasks, that assemble the genomes of both persons.
+     *
+     * @param feature          Corresponding BED file or Marker file feature.
+     * @param firstAssembly    First person's genome assembly task.
+     * @param secondAssembly   Second person's genome assembly task.
+     * @param type             Type of the comparator, that will be used to compare genomes.
+     * @param threadsNumber    Number of threads that are used in {@link GenomeComparatorExecutor}.
+     * @param additionalOutput if this flag is true, then advanced region comparison results will be displayed,
+     *                         else - only the main chromosome results will be obtained
+     */
+    public FeatureCallable(BEDFeature feature, GenomeAssemblyCallable firstAssembly, GenomeAssemblyCallable secondAssembly, ComparatorType type, int threadsNumber, boolean additionalOutput) {
+        this(feature, firstAssembly, secondAssembly, type, threadsNumber, additionalOutput, 100d);
+    }
+
+    /**
+     * Creates a feature thread from the tasks, that assemble the genomes of both persons,
+     * and the cap of the differences of the regions.
+     *
+     * @param feature          Corresponding BED file or Marker file feature.
+     * @param firstAssembly    First person's genome assembly task.
+     * @param secondAssembly   Second person's genome assembly task.
+     * @param type             Type of the comparator, that will be used to compare genomes.
+     * @param threadsNumber    Number of threads that are used in {@link GenomeComparatorExecutor}.
+     * @param additionalOutput if this flag is true, then advanced region comparison results will be displayed,
+     *                         else - only the main chromosome results will be obtained
+     * @param maxDifference    Maximal percentage of the differences in each region,
+     *                         up to which the Levenshtein distance is calculated exactly.
+     */
+    public FeatureCallable(BEDFeature feature, GenomeAssemblyCallable firstAssembly, GenomeAssemblyCallable secondAssembly, ComparatorType type, int threadsNumber, boolean additionalOutput, double maxDifference) {
         this.mode = type;
+        this.maxDifference = maxDifference;
         this.feature = feature;
-        this.firstBAMFile = firstParser;
-        this.secondBAMFile = secondParser;
+        this.firstAssembly = firstAssembly;
+        this.secondAssembly = secondAssembly;
         this.additionalOutput = additionalOutput;
         this.compareThreadsNumber = Runtime.getRuntime().availableProcessors() / threadsNumber > 0 ? Runtime.getRuntime().availableProcessors() / threadsNumber : 1;
     }
@@ -126,7 +167,8 @@ public class FeatureCallable implements Callable<List<ComparisonResult>> {
      * {@link Callable} interface method call() override.
      * Assembles two persons' genomes according to the bed file
      * feature that is passed through constructor and then compares
-     * these two regions.
+     * these two regions. Each pair of regions is compared as soon as
+     * it is assembled, so only a bounded window of the regions is kept.
      *
      * @return Results of the comparison of two regions.
      * @throws GenomeException      if regions don't pass the validation.
@@ -143,45 +185,60 @@ public class FeatureCallable implements Callable<List<ComparisonResult>> {
             // log the start of the processing
             featureLogger.info("Processing feature: " + feature.toString());
 
-            List<GenomeAssemblyCallable> assemblyTasks = new ArrayList<>();
-            // add the tasks to the list
-            assemblyTasks.add(new GenomeAssemblyCallable(firstBAMFile, feature));
-            assemblyTasks.add(new GenomeAssemblyCallable(secondBAMFile, feature));
-
-            // getSAMRecordList the results of the assembling as a list of Future objects
-            List<Future<List<GenomeRegion>>> assembledRegions = assemblyService.invokeAll(assemblyTasks);
-
-            // save the results of the comparison
-            List<GenomeRegion> firstGenome = assembledRegions.get(FIRST_PERSON).get();
-            List<GenomeRegion> secondGenome = assembledRegions.get(SECOND_PERSON).get();
-
-            // shutdown the assembling executor
-            assemblyService.shutdown();
-
-            // check the results
-            if (firstGenome.size() != secondGenome.size()) {
-                //throw new GenomeException("Error occurred while assembling: " + feature);
-                featureLogger.error("Error occurred while assembling: " + feature);
-                return Collections.synchronizedList(new ArrayList<>());
-            }
+            // regions, that are assembled, but not compared yet
+            BlockingQueue<GenomeRegion> firstRegions = new ArrayBlockingQueue<>(REGIONS_WINDOW);
+            BlockingQueue<GenomeRegion> secondRegions = new ArrayBlockingQueue<>(REGIONS_WINDOW);
+            Future<Void> firstGenome = assemblyService.submit(() -> assemble(firstAssembly, firstRegions));
+            Future<Void> secondGenome = assemblyService.submit(() -> assemble(secondAssembly, secondRegions));
 
             // submit the tasks to the executor for the further comparison
-            for (int i = 0; i < firstGenome.size(); i++) {
+            List<ComparisonResult> results = Collections.synchronizedList(new ArrayList<>());
+            int pending = 0;
+            GenomeRegion first = firstRegions.take();
+            GenomeRegion second = secondRegions.take();
+            while (first != END_OF_REGIONS && second != END_OF_REGIONS) {
                 GenomeComparator comparator = null;
                 switch (mode) {
                     case XY_STR:
-                        comparator = new STRComparator(feature, firstGenome.get(i), secondGenome.get(i));
+                        comparator = new STRComparator(feature, first, second);
                         break;
                     case LEVENSHTEIN:
-                        comparator = new LevenshteinComparator(firstGenome.get(i), secondGenome.get(i));
+                        comparator = new LevenshteinComparator(first, second, maxDifference);
                         break;
                 }
                 compareService.submit(new GenomeRegionCallable(comparator, additionalOutput));
+                // wait for the comparisons, so that the regions are not accumulated
+                if (++pending == REGIONS_WINDOW) {
+                    results.add(compareService.take().get());
+                    pending--;
+                }
+                first = firstRegions.take();
+                second = secondRegions.take();
+            }
+
+            // wait for the end of the longer genome
+            boolean sameSize = first == second;
+            while (first != END_OF_REGIONS) {
+                first = firstRegions.take();
+            }
+            while (second != END_OF_REGIONS) {
+                second = secondRegions.take();
+            }
+            firstGenome.get();
+            secondGenome.get();
+
+            // shutdown the assembling executor
+            assemblyService.shutdown();
+
+            // check the results
+            if (!sameSize) {
+                //throw new GenomeException("Error occurred while assembling: " + feature);
+                featureLogger.error("Error occurred while assembling: " + feature);
+                return Collections.synchronizedList(new ArrayList<>());
             }
 
             // save the results of the comparison
-            List<ComparisonResult> results = Collections.synchronizedList(new ArrayList<>());
-            for (int i = 0; i < firstGenome.size(); i++) {
+            for (; pending > 0; pending--) {
                 results.add(compareService.take().get());
             }
 
@@ -209,4 +266,30 @@ public class FeatureCallable implements Callable<List<ComparisonResult>> {
             comparePool.shutdownNow();
         }
     }
+
+    /**
+     * Assembles the genome of one person and puts the regions to the queue,
+     * waiting while the queue is full. The end of the regions is always marked,
+     * even if the assembly fails, so that the comparing thread never waits forever.
+     *
+     * @param assembly Genome assembly task.
+     * @param regions  Queue of the regions, that are not compared yet.
+     * @return null.
+     * @throws InterruptedException if thread was interrupted.
+     */
+    private static Void assemble(GenomeAssemblyCallable assembly, BlockingQueue<GenomeRegion> regions) throws InterruptedException {
+        try {
+            assembly.assemble(region -> {
+                try {
+                    regions.put(region);
+                } catch (InterruptedException iex) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("Assembly was interrupted");
+                }
+            });
+        } finally {
+            regions.put(END_OF_REGIONS);
+        }
+        return null;
+    }
 }
@@ -28,12 +28,17 @@ import bam.regular.BAMParser;
 import bam.regular.BEDFeature;
 import exception.GenomeException;
 import exception.GenomeFileException;
+import genome.assembly.ConsensusBuffer;
+import genome.assembly.ConsensusCache;
+import genome.assembly.CoverageStatistics;
 import genome.assembly.GenomeConstructor;
 import genome.assembly.GenomeRegion;
 import genome.assembly.SAMRecordList;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 
 /**
  * {@link GenomeAssemblyCallable} class implements a {@link Callable} interface.
@@ -54,6 +59,26 @@ public class GenomeAssemblyCallable implements Callable<List<GenomeRegion>> {
      */
     private BEDFeature feature;
 
+    /**
+     * Reads overlapping the feature, if they were already read from the BAM file.
+     */
+    private SAMRecordList samRecords;
+
+    /**
+     * Cache of the regions assembled from the same BAM file, or null.
+     */
+    private ConsensusCache cache;
+
+    /**
+     * Consumer of the coverage statistics of the assembled feature, or null.
+     */
+    private Consumer<CoverageStatistics> statistics;
+
+    /**
+     * Consensus buffer, where the regions are assembled, or null if they are assembled on the heap.
+     */
+    private ConsensusBuffer buffer;
+
     /**
      * Creates the {@link GenomeAssemblyCallable} from the corresponding BAM file parser
      * and bed file feature that represents this region.
@@ -62,8 +87,56 @@ public class GenomeAssemblyCallable implements Callable<List<GenomeRegion>> {
      * @param feature BED file feature.
      */
     public GenomeAssemblyCallable(BAMParser parser, BEDFeature feature) {
+        this(parser, feature, null, null, null);
+    }
+
+    /**
+     * Creates the {@link GenomeAssemblyCallable} from the corresponding BAM file parser,
+     * bed file feature that represents this region and the cache of the regions,
+     * that is checked before the BAM file is read.
+     *
+     * @param parser     Corresponding BAM file parser.
+     * @param feature    BED file feature.
+     * @param cache      Cache of the regions assembled from the same BAM file, or null.
+     * @param statistics Consumer of the coverage statistics of the feature, or null.
+     * @param buffer     Consensus buffer, where the regions are assembled, or null.
+     */
+    public GenomeAssemblyCallable(BAMParser parser, BEDFeature feature, ConsensusCache cache, Consumer<CoverageStatistics> statistics, ConsensusBuffer buffer) {
         this.bamFile = parser;
         this.feature = feature;
+        this.cache = cache;
+        this.statistics = statistics;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates the {@link GenomeAssemblyCallable} from the reads, that were already
+     * read from the BAM file, and bed file feature that represents this region.
+     *
+     * @param samRecords Reads overlapping the feature.
+     * @param feature    BED file feature.
+     */
+    public GenomeAssemblyCallable(SAMRecordList samRecords, BEDFeature feature) {
+        this(samRecords, feature, null, null, null);
+    }
+
+    /**
+     * Creates the {@link GenomeAssemblyCallable} from the reads, that were already
+     * read from the BAM file, bed file feature that represents this region and
+     * the cache of the regions.
+     *
+     * @param samRecords Reads overlapping the feature, may be null if the feature is cached.
+     * @param feature    BED file feature.
+     * @param cache      Cache of the regions assembled from the same BAM file, or null.
+     * @param statistics Consumer of the coverage statistics of the feature, or null.
+     * @param buffer     Consensus buffer, where the regions are assembled, or null.
+     */
+    public GenomeAssemblyCallable(SAMRecordList samRecords, BEDFeature feature, ConsensusCache cache, Consumer<CoverageStatistics> statistics, ConsensusBuffer buffer) {
+        this.samRecords = samRecords;
+        this.feature = feature;
+        this.cache = cache;
+        this.statistics = statistics;
+        this.buffer = buffer;
     }
 
     /**
@@ -71,16 +144,56 @@ public class GenomeAssemblyCallable implements Callable<List<GenomeRegion>> {
      * Assemblies the genome region nucleotide sequence
      * from input BAM file parser and BED file feature,
      * that represents this region in the BED file.
+     * The cached regions are returned without reading the BAM file.
      *
      * @return List of the assembled {@link GenomeRegion} objects.
      * @throws GenomeException if regions don't pass the validation.
      */
     @Override
     public List<GenomeRegion> call() {
+        List<GenomeRegion> regions = new ArrayList<>();
+        assemble(regions::add);
+        return regions;
+    }
+
+    /**
+     * Assemblies the genome region nucleotide sequence and passes each region
+     * to the consumer as soon as it is assembled, in the order of their positions.
+     * The cached regions are passed without reading the BAM file, together with
+     * the coverage statistics, that were collected when they were assembled.
+     *
+     * @param consumer Consumer of the assembled {@link GenomeRegion} objects.
+     * @throws GenomeException if regions don't pass the validation.
+     */
+    public void assemble(Consumer<GenomeRegion> consumer) {
+        List<GenomeRegion> regions = cache != null ? cache.get(feature) : null;
+        if (regions != null) {
+            regions.forEach(consumer);
+            CoverageStatistics cached = statistics != null ? cache.getStatistics(feature) : null;
+            if (cached != null) {
+                statistics.accept(cached);
+            }
+            return;
+        }
         // getSAMRecordList the list of sam records for each person
         //SAMRecordList samRecords = new BAMParser(this.bamFile.getBAMFileName()).parse(feature);
-        SAMRecordList samRecords = this.bamFile.parse(feature);
-        // assembly the nucleotides and return the result
-        return GenomeConstructor.assembly(samRecords, feature);
+        SAMRecordList samRecords = this.samRecords != null ? this.samRecords : this.bamFile.parse(feature);
+        // statistics are always cached, so that they are known on the next runs
+        CoverageStatistics coverage = statistics != null || cache != null ? new CoverageStatistics(feature) : null;
+        // assembly the nucleotides, the regions are kept only if they are cached
+        if (cache == null) {
+            GenomeConstructor.assembly(samRecords, feature, consumer, coverage, buffer);
+        } else {
+            List<GenomeRegion> assembled = new ArrayList<>();
+            GenomeConstructor.assembly(samRecords, feature, region -> {
+                assembled.add(region);
+                consumer.accept(region);
+            }, coverage, buffer);
+            // only the completely assembled features are cached
+            cache.put(feature, assembled, coverage);
+        }
+        if (statistics != null) {
+            statistics.accept(coverage);
+        }
     }
 }
@@ -4,24 +4,59 @@ import bam.marker_region.MarkerRegionFileParser;
 import bam.regular.BAMParser;
 import bam.regular.BEDFeature;
 import bam.regular.BEDParser;
+import bam.regular.ContigResolver;
+import bam.regular.QueryMode;
+import bam.regular.SamReaderPool;
 import exception.GenomeException;
 import exception.GenomeFileException;
+import genome.assembly.ConsensusBuffer;
+import genome.assembly.ConsensusCache;
+import genome.assembly.CoverageStatistics;
+import genome.assembly.SAMRecordList;
 import genome.compare.common.ComparatorType;
 import genome.compare.common.ComparisonResult;
 import genome.compare.common.ComparisonResultAnalyzer;
 import genome.compare.levenshtein.LevenshteinComparisonResultAnalyzer;
 import genome.compare.str.STRComparisonResultAnalyzer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public class GenomeComparatorExecutor {
 
+    /**
+     * Logger that is used to write down the information about skipped features.
+     */
+    private static final Logger executorLogger = LogManager.getLogger(GenomeComparatorExecutor.class);
+
+    /**
+     * Number of the assemblies per comparison thread, that may wait for the other person's
+     * reads, before the parser, that is ahead, waits for the other one.
+     */
+    private static final int UNPAIRED_ASSEMBLIES_PER_THREAD = 4;
+
+    /**
+     * Extension of the files with the coverage statistics.
+     */
+    private static final String COVERAGE_EXTENSION = ".coverage.tsv";
+
     /**
      * Path to the first person's BAM file.
      */
@@ -32,6 +67,46 @@ public class GenomeComparatorExecutor {
      */
     private BAMParser secondBAMFile;
 
+    /**
+     * Cache of the regions assembled from the first person's BAM file, or null.
+     */
+    private ConsensusCache firstCache;
+
+    /**
+     * Cache of the regions assembled from the second person's BAM file, or null.
+     */
+    private ConsensusCache secondCache;
+
+    /**
+     * Consensus buffer, where the first person's genome is assembled, or null.
+     */
+    private ConsensusBuffer firstBuffer;
+
+    /**
+     * Consensus buffer, where the second person's genome is assembled, or null.
+     */
+    private ConsensusBuffer secondBuffer;
+
+    /**
+     * Path to the first person's BAM file.
+     */
+    private String pathToFirstBAM;
+
+    /**
+     * Path to the second person's BAM file.
+     */
+    private String pathToSecondBAM;
+
+    /**
+     * Coverage statistics of the features assembled from the first person's BAM file, or null.
+     */
+    private List<CoverageStatistics> firstStatistics;
+
+    /**
+     * Coverage statistics of the features assembled from the second person's BAM file, or null.
+     */
+    private List<CoverageStatistics> secondStatistics;
+
     /**
      * Map with the exons that
      * are parsed from the input BED file.
@@ -43,6 +118,11 @@ public class GenomeComparatorExecutor {
      */
     private ComparatorType type;
 
+    /**
+     * Options, which define how the genomes are read, assembled and compared.
+     */
+    private ComparisonOptions options;
+
     /**
      * Default class constructor from paths to the BAM files and corresponding to them BED file
      * and number of threads that will process the exons.
@@ -55,13 +135,109 @@ public class GenomeComparatorExecutor {
      * @throws GenomeFileException if incorrect BED or BAM file is passed.
      */
     public GenomeComparatorExecutor(String pathToFirstBAM, String pathToSecondBAM, String pathToBED, ComparatorType type) {
-        this.firstBAMFile = new BAMParser(pathToFirstBAM);
-        this.secondBAMFile = new BAMParser(pathToSecondBAM);
+        this(pathToFirstBAM, pathToSecondBAM, pathToBED, type, new ComparisonOptions());
+    }
+
+    /**
+     * Class constructor from paths to the BAM files and corresponding to them BED file,
+     * type of the comparator and options of the comparison.
+     *
+     * @param pathToFirstBAM  Path to the BAM file where first person's genome is stored.
+     * @param pathToSecondBAM Path to the BAM file where first person's genome is stored.
+     * @param pathToBED       Path to the BED file.
+     * @param type            Type of the comparator, that will be used to compare genomes.
+     * @param options         Options, which define how the genomes are read, assembled and compared.
+     * @throws GenomeException     if exception occurs file parsing the BED file.
+     * @throws GenomeFileException if incorrect BED or BAM file is passed.
+     */
+    public GenomeComparatorExecutor(String pathToFirstBAM, String pathToSecondBAM, String pathToBED, ComparatorType type, ComparisonOptions options) {
+        this.options = options;
+        this.firstBAMFile = new BAMParser(pathToFirstBAM, options.readerOptions);
+        this.secondBAMFile = new BAMParser(pathToSecondBAM, options.readerOptions);
+        this.firstCache = openCache(pathToFirstBAM);
+        this.secondCache = openCache(pathToSecondBAM);
+        this.pathToFirstBAM = pathToFirstBAM;
+        this.pathToSecondBAM = pathToSecondBAM;
+        if (options.coverageDirectory != null) {
+            this.firstStatistics = Collections.synchronizedList(new ArrayList<>());
+            this.secondStatistics = Collections.synchronizedList(new ArrayList<>());
+        }
         this.type = type;
         // depending on the type of the comparator we are going to use
         this.exons = type == ComparatorType.LEVENSHTEIN ? new BEDParser(pathToBED).parse() : new MarkerRegionFileParser(pathToBED).parse();
     }
 
+    /**
+     * Opens the cache of the regions assembled from the BAM file, if the cache directory is set.
+     * The standard input can't be cached, as it can't be identified.
+     *
+     * @param pathToBAM Path to the BAM file.
+     * @return Cache of the regions, or null.
+     */
+    private ConsensusCache openCache(String pathToBAM) {
+        if (options.cacheDirectory == null || pathToBAM.equals(SamReaderPool.STANDARD_INPUT)) {
+            return null;
+        }
+        return new ConsensusCache(options.cacheDirectory, pathToBAM, options.readerOptions, options.queryMode);
+    }
+
+    /**
+     * Creates the consensus buffer, if the genomes are assembled off the heap.
+     *
+     * @return Consensus buffer, or null.
+     * @throws GenomeFileException if the file of the buffer can't be created.
+     */
+    private ConsensusBuffer openBuffer() {
+        if (!options.offHeapAssembly) {
+            return null;
+        }
+        return options.offHeapDirectory != null ? new ConsensusBuffer(options.offHeapDirectory) : new ConsensusBuffer();
+    }
+
+    /**
+     * Returns the consumer, that collects the coverage statistics to the list.
+     *
+     * @param statistics List with the coverage statistics, or null if they are not collected.
+     * @return Consumer of the coverage statistics, or null.
+     */
+    private static Consumer<CoverageStatistics> collector(List<CoverageStatistics> statistics) {
+        return statistics != null ? statistics::add : null;
+    }
+
+    /**
+     * Creates the directory for the coverage statistics, if it doesn't exist yet,
+     * so that the wrong path is reported before the genomes are assembled.
+     *
+     * @throws GenomeFileException if the directory can't be created.
+     */
+    private void createStatisticsDirectory() {
+        if (!options.coverageDirectory.isDirectory() && !options.coverageDirectory.mkdirs()) {
+            throw new GenomeFileException(this.getClass().getName(), "createStatisticsDirectory", options.coverageDirectory.getPath(), "can't create the directory");
+        }
+    }
+
+    /**
+     * Writes the coverage statistics of the BAM file to the file in the statistics directory,
+     * named after the BAM file, sorting the features by their positions. The file, that was
+     * already written by the other comparison using the same options, is not written again.
+     *
+     * @param pathToBAM  Path to the BAM file.
+     * @param statistics Coverage statistics of the features assembled from the BAM file.
+     * @throws GenomeFileException if error occurs while writing the file.
+     */
+    private void writeStatistics(String pathToBAM, List<CoverageStatistics> statistics) {
+        String name = pathToBAM.equals(SamReaderPool.STANDARD_INPUT) ? "stdin" : new File(pathToBAM).getName();
+        List<CoverageStatistics> sorted = new ArrayList<>(statistics);
+        sorted.sort(Comparator.comparing((CoverageStatistics feature) -> feature.getFeature().getChromosomeName())
+            .thenComparingInt(feature -> feature.getFeature().getStartPos())
+            .thenComparingInt(feature -> feature.getFeature().getEndPos()));
+        File file = new File(options.coverageDirectory, name + COVERAGE_EXTENSION);
+        if (!options.writtenStatistics.add(file.getAbsoluteFile())) {
+            return;
+        }
+        CoverageStatistics.writeTSV(file, sorted);
+    }
+
     /**
      * Compares two genomes parsing regions for each gene from the input files.
      *
@@ -75,48 +251,280 @@ public class GenomeComparatorExecutor {
     public ComparisonResultAnalyzer compareGenomes(int threadsNum, boolean advancedOutput, String path) throws GenomeException {
         // results of the comparison
         ComparisonResultAnalyzer comparisonResults;
+        if (options.coverageDirectory != null) {
+            createStatisticsDirectory();
+        }
+        // off-heap memory, where the genomes are assembled
+        firstBuffer = openBuffer();
+        secondBuffer = openBuffer();
         // executors that will be used in the method
         ExecutorService executorPool = Executors.newFixedThreadPool(threadsNum);
         CompletionService<List<ComparisonResult>> executorService = new ExecutorCompletionService<>(executorPool);
         try {
+            List<BEDFeature> features = new ArrayList<>();
+            for (String gene : exons.keySet()) {
+                features.addAll(exons.get(gene));
+            }
+            features = dropUnresolvedFeatures(features);
             if (type == ComparatorType.LEVENSHTEIN) {
                 comparisonResults = new LevenshteinComparisonResultAnalyzer();
             } else {
-                List<BEDFeature> features = new ArrayList<>();
-                for (String gene : exons.keySet()) {
-                    features.addAll(exons.get(gene));
-                }
                 comparisonResults = new STRComparisonResultAnalyzer(path, features);
             }
 
             // TODO add XSTRComparisonResultAnalyzer, when it will be developed
             int tasksNumber = 0;
-            for (String gene : exons.keySet()) {
+            if (options.queryMode == QueryMode.INDEXED) {
                 // add tasks to the executor and wait for the results
-                for (BEDFeature feature : exons.get(gene)) {
-                    executorService.submit(new FeatureCallable(feature, firstBAMFile, secondBAMFile, type, threadsNum, advancedOutput));
+                for (BEDFeature feature : features) {
+                    GenomeAssemblyCallable firstAssembly = new GenomeAssemblyCallable(firstBAMFile, feature, firstCache, collector(firstStatistics), firstBuffer);
+                    GenomeAssemblyCallable secondAssembly = new GenomeAssemblyCallable(secondBAMFile, feature, secondCache, collector(secondStatistics), secondBuffer);
+                    executorService.submit(new FeatureCallable(feature, firstAssembly, secondAssembly, type, threadsNum, advancedOutput, options.maxDifference));
                     tasksNumber++;
                 }
+            } else {
+                tasksNumber = submitBatch(features, executorService, threadsNum, advancedOutput);
             }
 
             for (int i = 0; i < tasksNumber; i++) {
                 comparisonResults.add(executorService.take().get());
             }
 
+            // store the assembled regions for the next runs
+            for (ConsensusCache cache : new ConsensusCache[]{firstCache, secondCache}) {
+                if (cache != null) {
+                    cache.save();
+                }
+            }
+            if (options.coverageDirectory != null) {
+                writeStatistics(pathToFirstBAM, firstStatistics);
+                writeStatistics(pathToSecondBAM, secondStatistics);
+            }
+
             executorPool.shutdown();
             return comparisonResults;
         } catch (Exception ex) {
             // if exception has occurred during the call
             // then get the cause and init our own exception
-            Throwable t = ex.getCause();
+            Throwable t = ex.getCause() != null ? ex.getCause() : ex;
             GenomeException gex = new GenomeException(this.getClass().getName(), "call", t.getMessage());
             gex.initCause(t);
             throw gex;
         } finally {
             executorPool.shutdownNow();
+            // interrupted tasks may still be reading the BAM files
+            awaitTermination(executorPool);
+            // release the readers, that were opened for the BAM files
+            firstBAMFile.close();
+            secondBAMFile.close();
+            // release the off-heap memory of the assembled genomes
+            for (ConsensusBuffer buffer : new ConsensusBuffer[]{firstBuffer, secondBuffer}) {
+                if (buffer != null) {
+                    try {
+                        buffer.close();
+                    } catch (IOException ex) {
+                        executorLogger.warn("Can't close the consensus buffer: " + ex.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until all the tasks of the shut down pool are finished,
+     * so that the resources they use can be released.
+     *
+     * @param pool Pool, that has been shut down.
+     */
+    private static void awaitTermination(ExecutorService pool) {
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                executorLogger.warn("Waiting for the comparison tasks to finish");
+            }
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drops the features, whose chromosomes are not present in any of the BAM files,
+     * so that no tasks are scheduled for them.
+     *
+     * @param features List with all the features from the input file.
+     * @return List with the features, that can be read from both files.
+     */
+    private List<BEDFeature> dropUnresolvedFeatures(List<BEDFeature> features) {
+        // resolvers are not available for the standard input, its features are kept
+        ContigResolver firstResolver = firstBAMFile.getContigResolver();
+        ContigResolver secondResolver = secondBAMFile.getContigResolver();
+        List<BEDFeature> resolved = new ArrayList<>();
+        for (BEDFeature feature : features) {
+            if ((firstResolver == null || firstResolver.getIndex(feature.getChromosomeName()) != -1)
+                && (secondResolver == null || secondResolver.getIndex(feature.getChromosomeName()) != -1)) {
+                resolved.add(feature);
+            } else {
+                executorLogger.warn("Skipping feature, whose chromosome is not present in the BAM files: " + feature);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Reads both BAM files with one multi-interval query per contig, or in one sequential
+     * pass in the streaming mode, and submits the comparison of each feature as soon as
+     * its reads from both files are ready. Features, whose regions are cached, are not
+     * read from the file at all. The parser, that is ahead of the other one, waits,
+     * while too many of its assemblies wait for the pair, so that the reads of the whole
+     * file are not kept in memory.
+     *
+     * @param features        List with all the features from the input file.
+     * @param executorService Service, where the comparison tasks are submitted.
+     * @param threadsNum      Number of threads that will be used to process exons.
+     * @param advancedOutput  if this flag is true , then interim genome comparison results will be displayed,
+     *                        else - only the main chromosome results will be obtained
+     * @return Number of the submitted tasks.
+     * @throws Exception if exception occurs while reading the BAM files.
+     */
+    private int submitBatch(List<BEDFeature> features, CompletionService<List<ComparisonResult>> executorService, int threadsNum, boolean advancedOutput) throws Exception {
+        int limit = UNPAIRED_ASSEMBLIES_PER_THREAD * threadsNum;
+        Handoff firstHandoff = new Handoff(firstCache, collector(firstStatistics), limit);
+        Handoff secondHandoff = new Handoff(secondCache, collector(secondStatistics), limit);
+        List<BEDFeature> firstFeatures = new ArrayList<>();
+        List<BEDFeature> secondFeatures = new ArrayList<>();
+        for (BEDFeature feature : features) {
+            boolean firstCached = firstHandoff.cache(feature);
+            boolean secondCached = secondHandoff.cache(feature);
+            if (firstCached && secondCached) {
+                executorService.submit(new FeatureCallable(feature, firstHandoff.cachedAssembly(feature), secondHandoff.cachedAssembly(feature), type, threadsNum, advancedOutput, options.maxDifference));
+            }
+            if (!firstCached) {
+                firstFeatures.add(feature);
+            }
+            if (!secondCached) {
+                secondFeatures.add(feature);
+            }
+        }
+
+        ExecutorService parserPool = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> first = parserPool.submit(() -> {
+                try {
+                    parseAll(firstBAMFile, firstFeatures, (feature, records) ->
+                        submitWhenPaired(feature, new GenomeAssemblyCallable(records, feature, firstCache, collector(firstStatistics), firstBuffer), true, firstHandoff, secondHandoff, executorService, threadsNum, advancedOutput));
+                } finally {
+                    finish(firstHandoff);
+                }
+            });
+            Future<?> second = parserPool.submit(() -> {
+                try {
+                    parseAll(secondBAMFile, secondFeatures, (feature, records) ->
+                        submitWhenPaired(feature, new GenomeAssemblyCallable(records, feature, secondCache, collector(secondStatistics), secondBuffer), false, secondHandoff, firstHandoff, executorService, threadsNum, advancedOutput));
+                } finally {
+                    finish(secondHandoff);
+                }
+            });
+            first.get();
+            second.get();
+            // each feature is passed exactly once by each of the parsers
+            return features.size();
+        } finally {
+            parserPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Parses all the features from the BAM file in the batch or the streaming mode.
+     *
+     * @param parser   Parser of the BAM file.
+     * @param features List with all the features from the input file.
+     * @param consumer Consumer of the features and the reads overlapping them.
+     */
+    private void parseAll(BAMParser parser, List<BEDFeature> features, BiConsumer<BEDFeature, SAMRecordList> consumer) {
+        if (features.isEmpty()) {
+            // all the features are cached
+            return;
+        }
+        if (options.queryMode == QueryMode.STREAMING) {
+            parser.parseStream(features, consumer);
+        } else {
+            parser.parseBatch(features, consumer);
         }
     }
 
+    /**
+     * Stores the assembly of the feature until the reads of the other person are ready,
+     * then submits the comparison task of this feature. If the regions of the other person
+     * are cached, then the task is submitted at once. The calling parser waits, while it has
+     * too many assemblies waiting for the pair, unless the other parser waits too or has finished,
+     * as the parsers may pass the features in the different orders.
+     *
+     * @param feature         BED file feature.
+     * @param assembly        Assembly of the reads of one person overlapping the feature.
+     * @param isFirst         true, if the reads belong to the first person.
+     * @param own             Handoff of this person.
+     * @param other           Handoff of the other person.
+     * @param executorService Service, where the comparison tasks are submitted.
+     * @param threadsNum      Number of threads that will be used to process exons.
+     * @param advancedOutput  if this flag is true , then interim genome comparison results will be displayed,
+     *                        else - only the main chromosome results will be obtained
+     * @throws GenomeException if the parser is interrupted while waiting.
+     */
+    private void submitWhenPaired(BEDFeature feature, GenomeAssemblyCallable assembly, boolean isFirst, Handoff own, Handoff other,
+                                  CompletionService<List<ComparisonResult>> executorService, int threadsNum, boolean advancedOutput) {
+        GenomeAssemblyCallable pair;
+        if (other.isCached(feature)) {
+            pair = other.cachedAssembly(feature);
+        } else {
+            synchronized (this) {
+                pair = other.assemblies.remove(feature);
+                if (pair == null) {
+                    own.assemblies.put(feature, assembly);
+                    awaitPairs(own, other);
+                    return;
+                }
+                // the other parser may wait for this one
+                notifyAll();
+            }
+        }
+        GenomeAssemblyCallable firstAssembly = isFirst ? assembly : pair;
+        GenomeAssemblyCallable secondAssembly = isFirst ? pair : assembly;
+        executorService.submit(new FeatureCallable(feature, firstAssembly, secondAssembly, type, threadsNum, advancedOutput, options.maxDifference));
+    }
+
+    /**
+     * Waits, while the parser has too many assemblies waiting for the pair,
+     * and the other parser is still running and doesn't wait itself.
+     * Must be called while holding the lock of this executor.
+     *
+     * @param own   Handoff of the waiting parser.
+     * @param other Handoff of the other parser.
+     * @throws GenomeException if the parser is interrupted while waiting.
+     */
+    private void awaitPairs(Handoff own, Handoff other) {
+        own.waiting = true;
+        try {
+            while (own.assemblies.size() > own.limit && !other.waiting && !other.finished) {
+                wait();
+            }
+        } catch (InterruptedException iex) {
+            GenomeException gex = new GenomeException(this.getClass().getName(), "awaitPairs", "interrupted while waiting for the other BAM file");
+            gex.initCause(iex);
+            throw gex;
+        } finally {
+            own.waiting = false;
+        }
+    }
+
+    /**
+     * Marks the parser as finished, so that the other parser doesn't wait for it.
+     *
+     * @param handoff Handoff of the parser.
+     */
+    private synchronized void finish(Handoff handoff) {
+        handoff.finished = true;
+        notifyAll();
+    }
+
     /**
      * Compares two genomes parsing regions for each gene from the input files.
      *
@@ -129,4 +537,95 @@ public class GenomeComparatorExecutor {
     public ComparisonResultAnalyzer compareGenomes(int threadsNum, boolean advancedOutput) throws GenomeException {
         return compareGenomes(threadsNum, advancedOutput, null);
     }
+
+    /**
+     * Assemblies of one person, that are handed off by the parser of the BAM file
+     * and wait for the other person's assemblies of the same features.
+     * Fields are guarded by the lock of the executor.
+     */
+    private static class Handoff {
+
+        /**
+         * Assemblies, that wait for the pair, by their features.
+         */
+        private Map<BEDFeature, GenomeAssemblyCallable> assemblies = new IdentityHashMap<>();
+
+        /**
+         * Cache of the regions assembled from the BAM file, or null.
+         */
+        private ConsensusCache cache;
+
+        /**
+         * Consumer of the coverage statistics of the cached features, or null.
+         */
+        private Consumer<CoverageStatistics> statistics;
+
+        /**
+         * Features, whose regions were cached before the parsing, so they are not parsed.
+         */
+        private Set<BEDFeature> cachedFeatures = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        /**
+         * Number of the waiting assemblies, after which the parser waits for the other one.
+         */
+        private int limit;
+
+        /**
+         * True, while the parser waits for the other one.
+         */
+        private boolean waiting = false;
+
+        /**
+         * True, when the parser has passed all the features or has failed.
+         */
+        private boolean finished = false;
+
+        /**
+         * Creates the empty handoff.
+         *
+         * @param cache      Cache of the regions assembled from the BAM file, or null.
+         * @param statistics Consumer of the coverage statistics of the cached features, or null.
+         * @param limit      Number of the waiting assemblies, after which the parser waits for the other one.
+         */
+        Handoff(ConsensusCache cache, Consumer<CoverageStatistics> statistics, int limit) {
+            this.cache = cache;
+            this.statistics = statistics;
+            this.limit = limit;
+        }
+
+        /**
+         * Checks if the regions of the feature are cached before the parsing
+         * and remembers the feature in this case.
+         *
+         * @param feature BED file feature.
+         * @return true, if the regions are taken from the cache.
+         */
+        boolean cache(BEDFeature feature) {
+            if (cache != null && cache.get(feature) != null) {
+                cachedFeatures.add(feature);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Checks if the regions of the feature were cached before the parsing, so the feature is not parsed.
+         *
+         * @param feature BED file feature.
+         * @return true, if the regions are taken from the cache.
+         */
+        boolean isCached(BEDFeature feature) {
+            return cachedFeatures.contains(feature);
+        }
+
+        /**
+         * Creates the assembly, that takes the regions of the feature from the cache.
+         *
+         * @param feature BED file feature, whose regions are cached.
+         * @return Assembly of the feature.
+         */
+        GenomeAssemblyCallable cachedAssembly(BEDFeature feature) {
+            return new GenomeAssemblyCallable((SAMRecordList) null, feature, cache, statistics, null);
+        }
+    }
 }
@@ -0,0 +1,164 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package genome.assembly;
+
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Compact read, that keeps only the fields of the {@link SAMRecord}, which
+ * are used to assemble the genome: alignment start and end, CIGAR, bases
+ * and their qualities. Read name, tags and the reference to the header
+ * are not copied, so the {@link SAMRecord} may be discarded right after
+ * it was read from the BAM file.
+ *
+ * @author Sergey Khvatov
+ */
+public final class AlignedRead {
+
+    /**
+     * Number of bits, used to store the operator of the CIGAR element.
+     */
+    private static final int CIGAR_OPERATOR_BITS = 4;
+
+    /**
+     * Mask of the operator of the CIGAR element.
+     */
+    private static final int CIGAR_OPERATOR_MASK = (1 << CIGAR_OPERATOR_BITS) - 1;
+
+    /**
+     * 1-based inclusive start position of the alignment.
+     */
+    private final int start;
+
+    /**
+     * 1-based inclusive end position of the alignment.
+     */
+    private final int end;
+
+    /**
+     * Bases of the read as ASCII characters.
+     */
+    private final byte[] bases;
+
+    /**
+     * Phred qualities of the bases.
+     */
+    private final byte[] qualities;
+
+    /**
+     * CIGAR elements, packed in the same way as in the BAM file:
+     * length of the element in the high bits and the operator in the low 4 bits.
+     */
+    private final int[] cigar;
+
+    /**
+     * Creates the read from the record, that was read from the BAM file.
+     *
+     * @param record Record from the BAM file.
+     */
+    public AlignedRead(SAMRecord record) {
+        this.start = record.getStart();
+        this.end = record.getEnd();
+        this.bases = record.getReadBases();
+        this.qualities = record.getBaseQualities();
+        this.cigar = encodeCigar(record.getCigar());
+    }
+
+    /**
+     * @return 1-based inclusive start position of the alignment.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @return 1-based inclusive end position of the alignment.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * @return Number of bases in the read.
+     */
+    public int getReadLength() {
+        return bases.length;
+    }
+
+    /**
+     * @return Bases of the read as ASCII characters. Array must not be modified.
+     */
+    public byte[] getBases() {
+        return bases;
+    }
+
+    /**
+     * @return Phred qualities of the bases. Array must not be modified.
+     */
+    public byte[] getBaseQualities() {
+        return qualities;
+    }
+
+    /**
+     * @return Number of the CIGAR elements.
+     */
+    public int getCigarLength() {
+        return cigar.length;
+    }
+
+    /**
+     * @param index Index of the CIGAR element.
+     * @return Length of the CIGAR element.
+     */
+    public int getCigarElementLength(int index) {
+        return cigar[index] >>> CIGAR_OPERATOR_BITS;
+    }
+
+    /**
+     * @param index Index of the CIGAR element.
+     * @return Operator of the CIGAR element.
+     */
+    public CigarOperator getCigarOperator(int index) {
+        return CigarOperator.binaryToEnum(cigar[index] & CIGAR_OPERATOR_MASK);
+    }
+
+    /**
+     * Packs the CIGAR elements into the array of integers.
+     *
+     * @param cigar CIGAR of the record.
+     * @return Packed CIGAR elements.
+     */
+    private static int[] encodeCigar(Cigar cigar) {
+        int[] packed = new int[cigar.numCigarElements()];
+        for (int i = 0; i < packed.length; i++) {
+            CigarElement element = cigar.getCigarElement(i);
+            packed[i] = element.getLength() << CIGAR_OPERATOR_BITS | CigarOperator.enumToBinary(element.getOperator());
+        }
+        return packed;
+    }
+}
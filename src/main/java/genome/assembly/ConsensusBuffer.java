@@ -0,0 +1,269 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package genome.assembly;
+
+import exception.GenomeException;
+import exception.GenomeFileException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Off-heap storage of the consensus nucleotides and qualities assembled from one BAM file.
+ * Each contig is assembled into its own chain of the segments of {@link #SEGMENT_NUCLEOTIDES}
+ * positions, that are allocated as the direct buffers or mapped from the temporary file,
+ * and the genome regions assembled into the buffer are only the views of their parts, so the
+ * size of the heap doesn't depend on the size of the assembled genome. Each region starts
+ * at the word boundary, so the words of its packed nucleotides are read without any shifts.
+ *
+ * @author Sergey Khvatov
+ */
+public class ConsensusBuffer implements Closeable {
+
+    /**
+     * Number of the positions in each segment.
+     */
+    public static final int SEGMENT_NUCLEOTIDES = 1 << 20;
+
+    /**
+     * Number of the words of the packed nucleotides in each segment.
+     */
+    private static final int SEGMENT_WORDS = SEGMENT_NUCLEOTIDES / GenomeRegion.NUCLEOTIDES_PER_WORD;
+
+    /**
+     * Size of each segment in bytes: packed nucleotides, masks of the unknown nucleotides and qualities.
+     */
+    private static final int SEGMENT_BYTES = SEGMENT_WORDS * (Long.BYTES + Integer.BYTES) + SEGMENT_NUCLEOTIDES;
+
+    /**
+     * Temporary file, where the segments are mapped from, or null if they are direct buffers.
+     */
+    private FileChannel channel;
+
+    /**
+     * Size of the temporary file, that is already mapped.
+     */
+    private long mappedBytes = 0;
+
+    /**
+     * Segment of each contig, where its next regions are allocated.
+     */
+    private Map<String, Segment> segments = new HashMap<>();
+
+    /**
+     * Creates the buffer, whose segments are allocated as the direct buffers.
+     */
+    public ConsensusBuffer() {
+        this.channel = null;
+    }
+
+    /**
+     * Creates the buffer, whose segments are mapped from the temporary file in the directory,
+     * so they may be paged out by the operating system. The file is deleted, when the buffer is closed.
+     *
+     * @param directory Directory, where the temporary file is created.
+     * @throws GenomeFileException if the file can't be created.
+     */
+    public ConsensusBuffer(File directory) {
+        try {
+            Path file = Files.createTempFile(directory.toPath(), "consensus", ".buffer");
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException ex) {
+            GenomeFileException gfex = new GenomeFileException(this.getClass().getName(), "ConsensusBuffer", directory.getPath(), ex.getMessage());
+            gfex.initCause(ex);
+            throw gfex;
+        }
+    }
+
+    /**
+     * Allocates the region in the segment of its contig. Nucleotides of the region
+     * are unknown and have zero qualities, until they are set by
+     * {@link GenomeRegion#setNucleotide(int, char, byte)}.
+     *
+     * @param chrom  Name of the chromosome.
+     * @param pos    Starting position.
+     * @param length Length of the nucleotide sequence.
+     * @param gene   Name of the gene.
+     * @return View of the allocated part of the buffer.
+     * @throws GenomeException if the region is longer than the segment or the segment can't be mapped.
+     */
+    synchronized GenomeRegion allocate(String chrom, int pos, int length, String gene) {
+        if (length > SEGMENT_NUCLEOTIDES) {
+            throw new GenomeException(this.getClass().getName(), "allocate", "length", "is greater than the size of the segment");
+        }
+        Segment segment = segments.get(chrom);
+        if (segment == null || segment.used + length > SEGMENT_NUCLEOTIDES) {
+            segment = new Segment(allocateSegment());
+            segments.put(chrom, segment);
+        }
+        int offset = segment.used;
+        // the next region starts from the next word
+        segment.used += (length + GenomeRegion.NUCLEOTIDES_PER_WORD - 1) / GenomeRegion.NUCLEOTIDES_PER_WORD * GenomeRegion.NUCLEOTIDES_PER_WORD;
+        return new GenomeRegion(chrom, pos, length, gene, segment, offset);
+    }
+
+    /**
+     * Allocates the memory of the next segment, that is filled with zeroes.
+     *
+     * @return Memory of the segment.
+     * @throws GenomeException if the segment can't be mapped.
+     */
+    private ByteBuffer allocateSegment() {
+        if (channel == null) {
+            return ByteBuffer.allocateDirect(SEGMENT_BYTES);
+        }
+        try {
+            // the file is extended by the mapping, so the segment is filled with zeroes
+            ByteBuffer memory = channel.map(FileChannel.MapMode.READ_WRITE, mappedBytes, SEGMENT_BYTES);
+            mappedBytes += SEGMENT_BYTES;
+            return memory;
+        } catch (IOException ex) {
+            GenomeException gex = new GenomeException(this.getClass().getName(), "allocateSegment", ex.getMessage());
+            gex.initCause(ex);
+            throw gex;
+        }
+    }
+
+    /**
+     * Releases the buffer. Regions, that were already allocated, stay valid,
+     * as the segments are released only when none of the regions refers to them.
+     *
+     * @throws IOException if the temporary file can't be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        segments.clear();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Segment of the buffer, that contains the packed nucleotides, masks of the unknown
+     * nucleotides and qualities of {@link #SEGMENT_NUCLEOTIDES} positions. The positions
+     * of different regions never share a word, so the regions may be filled concurrently.
+     */
+    static class Segment {
+
+        /**
+         * Nucleotides packed by 2 bits in the same order, as in {@link GenomeRegion}.
+         */
+        private final LongBuffer packedNucleotides;
+
+        /**
+         * Masks of the unknown nucleotides of each word.
+         */
+        private final IntBuffer unknownMask;
+
+        /**
+         * Quality of each position.
+         */
+        private final ByteBuffer qualities;
+
+        /**
+         * Number of the positions, that are already allocated.
+         */
+        private int used = 0;
+
+        /**
+         * Creates the segment over the memory of {@link #SEGMENT_BYTES} bytes.
+         *
+         * @param memory Memory of the segment.
+         */
+        Segment(ByteBuffer memory) {
+            memory.order(ByteOrder.nativeOrder());
+            memory.limit(SEGMENT_WORDS * Long.BYTES);
+            this.packedNucleotides = memory.slice().order(ByteOrder.nativeOrder()).asLongBuffer();
+            memory.position(memory.limit()).limit(memory.limit() + SEGMENT_WORDS * Integer.BYTES);
+            this.unknownMask = memory.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+            memory.position(memory.limit()).limit(memory.capacity());
+            this.qualities = memory.slice();
+        }
+
+        /**
+         * Sets the nucleotide and its quality on the position of the segment.
+         *
+         * @param index      Position in the segment.
+         * @param nucleotide Nucleotide in any case, or '*' if it's unknown.
+         * @param quality    Quality of the nucleotide.
+         * @throws GenomeException if the nucleotide is not one of A, C, G, T and *.
+         */
+        void set(int index, char nucleotide, byte quality) {
+            int word = index / GenomeRegion.NUCLEOTIDES_PER_WORD;
+            int bit = index % GenomeRegion.NUCLEOTIDES_PER_WORD;
+            if (nucleotide == GenomeRegion.UNKNOWN_NUCLEOTIDE) {
+                unknownMask.put(word, unknownMask.get(word) | 1 << bit);
+            } else {
+                int code = GenomeRegion.NUCLEOTIDES.indexOf(Character.toUpperCase(nucleotide));
+                if (code < 0) {
+                    throw new GenomeException(this.getClass().getName(), "set", "nucleotide", "is unknown symbol " + nucleotide);
+                }
+                packedNucleotides.put(word, packedNucleotides.get(word) | (long) code << (2 * bit));
+            }
+            qualities.put(index, quality);
+        }
+
+        /**
+         * Returns the word of the packed nucleotides.
+         *
+         * @param word Index of the word in the segment.
+         * @return Word of the packed nucleotides.
+         */
+        long getPackedWord(int word) {
+            return packedNucleotides.get(word);
+        }
+
+        /**
+         * Returns the mask of the unknown nucleotides of the word.
+         *
+         * @param word Index of the word in the segment.
+         * @return Mask of the unknown nucleotides.
+         */
+        int getUnknownMask(int word) {
+            return unknownMask.get(word);
+        }
+
+        /**
+         * Returns the quality on the position of the segment.
+         *
+         * @param index Position in the segment.
+         * @return Quality of the nucleotide.
+         */
+        byte getQuality(int index) {
+            return qualities.get(index);
+        }
+    }
+}
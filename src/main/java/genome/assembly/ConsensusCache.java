@@ -0,0 +1,316 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package genome.assembly;
+
+import bam.regular.BEDFeature;
+import bam.regular.QueryMode;
+import bam.regular.ReaderOptions;
+import exception.GenomeFileException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent cache of the genome regions, that were assembled from one BAM file.
+ * All the regions of the file are stored in one binary file in the cache directory,
+ * whose name is derived from the path, size and modification time of the BAM file
+ * and the options of reading the reads, so the cache becomes stale as soon as
+ * any of them changes. Regions are stored per feature together with their coverage
+ * statistics, so the panels, that share some features, reuse the regions of each other.
+ *
+ * @author Sergey Khvatov
+ */
+public class ConsensusCache {
+
+    /**
+     * Logger that is used to write down the information about the cache files.
+     */
+    private static final Logger cacheLogger = LogManager.getLogger(ConsensusCache.class);
+
+    /**
+     * First bytes of each cache file.
+     */
+    private static final int MAGIC = 0x42524343;
+
+    /**
+     * Version of the file format and the assembly, must be changed,
+     * when the regions assembled from the same reads may change.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Extension of the cache files.
+     */
+    private static final String CACHE_EXTENSION = ".consensus";
+
+    /**
+     * File, where the regions are stored.
+     */
+    private File cacheFile;
+
+    /**
+     * Key of the BAM file and the options, that is also stored in the file
+     * to detect the collisions of the file names.
+     */
+    private String key;
+
+    /**
+     * Assembled regions of each feature.
+     */
+    private Map<String, List<GenomeRegion>> regions = new ConcurrentHashMap<>();
+
+    /**
+     * Coverage statistics of each feature, that were collected while it was assembled.
+     */
+    private Map<String, CoverageStatistics> statistics = new ConcurrentHashMap<>();
+
+    /**
+     * True, if some regions were added after the file was loaded.
+     */
+    private volatile boolean modified = false;
+
+    /**
+     * Creates the cache of the BAM file and loads the regions,
+     * that were stored in the cache directory before.
+     *
+     * @param directory Directory, where the cache files are stored.
+     * @param pathToBAM Path to the BAM file.
+     * @param options   Options of reading the BAM file.
+     * @param queryMode Mode, in which the reads are taken from the BAM file.
+     * @throws GenomeFileException if the BAM file doesn't exist.
+     */
+    public ConsensusCache(File directory, String pathToBAM, ReaderOptions options, QueryMode queryMode) {
+        File bamFile = new File(pathToBAM);
+        if (!bamFile.isFile()) {
+            throw new GenomeFileException(this.getClass().getName(), "ConsensusCache", pathToBAM, "file doesn't exist");
+        }
+        this.key = buildKey(bamFile, options, queryMode);
+        this.cacheFile = new File(directory, digest(key) + CACHE_EXTENSION);
+        load();
+    }
+
+    /**
+     * Builds the key from the fingerprint of the BAM file and the options,
+     * that change the reads, the regions are assembled from.
+     *
+     * @param bamFile BAM file.
+     * @param options   Options of reading the BAM file.
+     * @param queryMode Mode, in which the reads are taken from the BAM file.
+     * @return Key of the cache.
+     */
+    private static String buildKey(File bamFile, ReaderOptions options, QueryMode queryMode) {
+        StringBuilder key = new StringBuilder();
+        key.append(FORMAT_VERSION).append('\t');
+        key.append(bamFile.getAbsoluteFile().toPath().normalize()).append('\t');
+        key.append(bamFile.length()).append('\t').append(bamFile.lastModified()).append('\t');
+        key.append(options.minMappingQuality).append('\t').append(options.excludedFlags).append('\t');
+        key.append(options.maxDepth).append('\t').append(options.validationStringency).append('\t');
+        key.append(options.referenceFile != null ? options.referenceFile.getAbsoluteFile().toPath().normalize() : "");
+        if (options.maxDepth > 0) {
+            // reads are downsampled differently, when they are queried and when they are streamed
+            key.append('\t').append(queryMode);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Computes the hexadecimal SHA-256 digest of the key.
+     *
+     * @param key Key of the cache.
+     * @return Digest of the key.
+     */
+    private static String digest(String key) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException nsaex) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(nsaex);
+        }
+    }
+
+    /**
+     * Builds the key of the feature.
+     *
+     * @param feature BED file feature.
+     * @return Key of the feature.
+     */
+    private static String featureKey(BEDFeature feature) {
+        return feature.getChromosomeName() + ':' + feature.getStartPos() + '-' + feature.getEndPos() + ':' + feature.getGene();
+    }
+
+    /**
+     * Returns the regions, that were assembled for the feature.
+     *
+     * @param feature BED file feature.
+     * @return Assembled regions, or null if the feature wasn't assembled yet.
+     */
+    public List<GenomeRegion> get(BEDFeature feature) {
+        return regions.get(featureKey(feature));
+    }
+
+    /**
+     * Returns the coverage statistics, that were collected while the feature was assembled.
+     *
+     * @param feature BED file feature.
+     * @return Coverage statistics of the feature, or null if the feature wasn't assembled
+     * yet or its statistics weren't stored.
+     */
+    public CoverageStatistics getStatistics(BEDFeature feature) {
+        CoverageStatistics stored = statistics.get(featureKey(feature));
+        return stored != null ? stored.copy(feature) : null;
+    }
+
+    /**
+     * Stores the regions, that were assembled for the feature.
+     * They are written to the disk by {@link #save()}.
+     *
+     * @param feature   BED file feature.
+     * @param assembled Assembled regions.
+     */
+    public void put(BEDFeature feature, List<GenomeRegion> assembled) {
+        put(feature, assembled, null);
+    }
+
+    /**
+     * Stores the regions, that were assembled for the feature, together with
+     * the coverage statistics collected while they were assembled.
+     * They are written to the disk by {@link #save()}.
+     *
+     * @param feature   BED file feature.
+     * @param assembled Assembled regions.
+     * @param coverage  Coverage statistics of the feature, or null.
+     */
+    public void put(BEDFeature feature, List<GenomeRegion> assembled, CoverageStatistics coverage) {
+        String featureKey = featureKey(feature);
+        // statistics are stored first, so that they are saved together with the regions
+        if (coverage != null) {
+            statistics.put(featureKey, coverage.copy(feature));
+        }
+        regions.put(featureKey, Collections.unmodifiableList(new ArrayList<>(assembled)));
+        modified = true;
+    }
+
+    /**
+     * Loads the regions from the cache file. Missing, stale or malformed
+     * files are ignored, so that the regions are assembled again.
+     */
+    private void load() {
+        if (!cacheFile.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !in.readUTF().equals(key)) {
+                cacheLogger.warn("Ignoring the cache file, that belongs to the other BAM file: " + cacheFile);
+                return;
+            }
+            int features = in.readInt();
+            for (int i = 0; i < features; i++) {
+                String feature = in.readUTF();
+                List<GenomeRegion> assembled = new ArrayList<>();
+                int count = in.readInt();
+                for (int j = 0; j < count; j++) {
+                    assembled.add(GenomeRegion.read(in));
+                }
+                if (in.readBoolean()) {
+                    statistics.put(feature, CoverageStatistics.read(in, null));
+                }
+                regions.put(feature, Collections.unmodifiableList(assembled));
+            }
+        } catch (IOException ioex) {
+            cacheLogger.warn("Ignoring the malformed cache file " + cacheFile + ": " + ioex.getMessage());
+            regions.clear();
+            statistics.clear();
+        }
+    }
+
+    /**
+     * Writes all the regions to the cache file, if some of them were added.
+     * The file is replaced atomically, so that the other processes never
+     * read it partially written. Errors are only logged, as the regions
+     * can always be assembled again.
+     */
+    public synchronized void save() {
+        if (!modified) {
+            return;
+        }
+        Path temp = null;
+        try {
+            Path directory = cacheFile.getAbsoluteFile().getParentFile().toPath();
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, cacheFile.getName(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(key);
+                // copy of the entries, as the map may be changed by the other threads
+                modified = false;
+                List<Map.Entry<String, List<GenomeRegion>>> entries = new ArrayList<>(regions.entrySet());
+                out.writeInt(entries.size());
+                for (Map.Entry<String, List<GenomeRegion>> entry : entries) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (GenomeRegion region : entry.getValue()) {
+                        region.write(out);
+                    }
+                    CoverageStatistics coverage = statistics.get(entry.getKey());
+                    out.writeBoolean(coverage != null);
+                    if (coverage != null) {
+                        coverage.write(out);
+                    }
+                }
+            }
+            Files.move(temp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+        } catch (IOException ioex) {
+            modified = true;
+            cacheLogger.warn("Unable to write the cache file " + cacheFile + ": " + ioex.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+        }
+    }
+}
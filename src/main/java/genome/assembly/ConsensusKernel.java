@@ -0,0 +1,287 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package genome.assembly;
+
+import htsjdk.samtools.CigarOperator;
+
+import java.util.Arrays;
+
+/**
+ * Allocation-free kernel of the consensus calling over a window of consecutive positions.
+ * Each read is walked once along the alignment blocks of its CIGAR, and each aligned base
+ * is counted at its reference position, so soft clips, insertions and deletions don't shift
+ * the bases. For each position the kernel keeps the number of each nucleotide and the
+ * histogram of the Phred qualities of each nucleotide, so the median quality is found by
+ * scanning the histogram instead of sorting the qualities. Kernel is reset and reused for
+ * each window, and must be confined to one thread.
+ *
+ * @author Sergey Khvatov
+ */
+class ConsensusKernel {
+
+    /**
+     * Nucleotides in the order, in which the ties of the count and the quality are resolved.
+     */
+    static final String NUCLEOTIDES = "actg";
+
+    /**
+     * Unknown nucleotide symbol.
+     */
+    static final char UNKNOWN_NUCLEOTIDE = '*';
+
+    /**
+     * Maximal Phred quality, that can be stored in the SAM format.
+     */
+    private static final int MAX_QUALITY = 93;
+
+    /**
+     * Number of the cells in the histogram of one nucleotide at one position.
+     */
+    private static final int HISTOGRAM_SIZE = MAX_QUALITY + 1;
+
+    /**
+     * Index of the nucleotide by the byte of the base in any case, or -1 if the base isn't a nucleotide.
+     */
+    private static final byte[] NUCLEOTIDE_INDEXES = new byte[256];
+
+    static {
+        Arrays.fill(NUCLEOTIDE_INDEXES, (byte) -1);
+        for (int i = 0; i < NUCLEOTIDES.length(); i++) {
+            NUCLEOTIDE_INDEXES[NUCLEOTIDES.charAt(i)] = (byte) i;
+            NUCLEOTIDE_INDEXES[Character.toUpperCase(NUCLEOTIDES.charAt(i))] = (byte) i;
+        }
+    }
+
+    /**
+     * Number of the positions in the window.
+     */
+    private final int width;
+
+    /**
+     * Number of each nucleotide at each position of the window.
+     */
+    private final int[] counts;
+
+    /**
+     * Histogram of the qualities of each nucleotide at each position of the window,
+     * the row of each nucleotide has {@code HISTOGRAM_SIZE} cells.
+     */
+    private final int[] histogram;
+
+    /**
+     * The best nucleotide found by {@link #call(int)}.
+     */
+    private char bestNucleotide;
+
+    /**
+     * Median quality of the best nucleotide found by {@link #call(int)}.
+     */
+    private byte bestQuality;
+
+    /**
+     * Number of the nucleotides, that were counted at the last called position.
+     */
+    private int depth;
+
+    /**
+     * Creates the kernel.
+     *
+     * @param width Number of the positions in the window.
+     */
+    ConsensusKernel(int width) {
+        this.width = width;
+        this.counts = new int[width * NUCLEOTIDES.length()];
+        this.histogram = new int[width * NUCLEOTIDES.length() * HISTOGRAM_SIZE];
+    }
+
+    /**
+     * @return Number of the positions in the window.
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * Clears the counts and the histograms before the next window.
+     */
+    void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                counts[i] = 0;
+                Arrays.fill(histogram, i * HISTOGRAM_SIZE, (i + 1) * HISTOGRAM_SIZE, 0);
+            }
+        }
+    }
+
+    /**
+     * Adds the bases of the read, that are aligned to the positions of the window.
+     * If the read has no CIGAR, then its bases are aligned one by one from its start.
+     *
+     * @param read        Read overlapping the window.
+     * @param windowStart Reference position of the first position of the window.
+     */
+    void add(AlignedRead read, int windowStart) {
+        byte[] bases = read.getBases(), qualities = read.getBaseQualities();
+        int windowEnd = windowStart + width;
+        if (read.getCigarLength() == 0) {
+            addBlock(bases, qualities, 0, read.getStart(), bases.length, windowStart, windowEnd);
+            return;
+        }
+        int readOffset = 0, referencePosition = read.getStart();
+        for (int i = 0; i < read.getCigarLength() && referencePosition < windowEnd; i++) {
+            int length = read.getCigarElementLength(i);
+            CigarOperator operator = read.getCigarOperator(i);
+            if (operator.consumesReadBases() && operator.consumesReferenceBases()) {
+                // alignment block: M, = or X
+                addBlock(bases, qualities, readOffset, referencePosition, length, windowStart, windowEnd);
+            }
+            if (operator.consumesReadBases()) {
+                readOffset += length;
+            }
+            if (operator.consumesReferenceBases()) {
+                referencePosition += length;
+            }
+        }
+    }
+
+    /**
+     * Adds the part of the alignment block, that lies inside the window.
+     *
+     * @param bases             Bases of the read.
+     * @param qualities         Qualities of the bases, may be empty.
+     * @param readOffset        Offset of the first base of the block in the read.
+     * @param referencePosition Reference position of the first base of the block.
+     * @param length            Length of the block.
+     * @param windowStart       Reference position of the first position of the window.
+     * @param windowEnd         Reference position after the last position of the window.
+     */
+    private void addBlock(byte[] bases, byte[] qualities, int readOffset, int referencePosition, int length, int windowStart, int windowEnd) {
+        int from = Math.max(referencePosition, windowStart);
+        int to = Math.min(Math.min(referencePosition + length, windowEnd), referencePosition + bases.length - readOffset);
+        for (int position = from; position < to; position++) {
+            int offset = readOffset + position - referencePosition;
+            add(position - windowStart, bases[offset], offset < qualities.length ? qualities[offset] : 0);
+        }
+    }
+
+    /**
+     * Adds the base of the read, that covers the position. Bases other than
+     * the nucleotides are skipped.
+     *
+     * @param position Offset of the position in the window.
+     * @param base     Base as the ASCII character in any case.
+     * @param quality  Phred quality of the base.
+     */
+    void add(int position, byte base, byte quality) {
+        int nucleotide = NUCLEOTIDE_INDEXES[base & 0xFF];
+        if (nucleotide < 0) {
+            return;
+        }
+        int cell = position * NUCLEOTIDES.length() + nucleotide;
+        counts[cell]++;
+        histogram[cell * HISTOGRAM_SIZE + Math.max(0, Math.min(MAX_QUALITY, quality))]++;
+    }
+
+    /**
+     * Calls the consensus nucleotide at the position: the most frequent one, and if several
+     * nucleotides are the most frequent, then the one with the highest median quality among
+     * them. The result is available through {@link #getBestNucleotide()} and {@link #getBestQuality()}.
+     *
+     * @param position Offset of the position in the window.
+     */
+    void call(int position) {
+        bestNucleotide = UNKNOWN_NUCLEOTIDE;
+        bestQuality = 0;
+        depth = 0;
+        int bestCount = 0;
+        for (int i = 0; i < NUCLEOTIDES.length(); i++) {
+            int cell = position * NUCLEOTIDES.length() + i;
+            depth += counts[cell];
+            if (counts[cell] == 0 || counts[cell] < bestCount) {
+                continue;
+            }
+            byte quality = getMedianQuality(cell);
+            // if the nucleotide occurs as many times as the best, then we look at their quality
+            if (counts[cell] > bestCount || quality > bestQuality) {
+                bestCount = counts[cell];
+                bestNucleotide = NUCLEOTIDES.charAt(i);
+                bestQuality = quality;
+            }
+        }
+    }
+
+    /**
+     * Returns the consensus nucleotide found by the last {@link #call(int)}.
+     *
+     * @return The best nucleotide in the lower case, or '*' if the position isn't covered.
+     */
+    char getBestNucleotide() {
+        return bestNucleotide;
+    }
+
+    /**
+     * Returns the median quality of the consensus nucleotide found by the last {@link #call(int)}.
+     *
+     * @return Median quality of the best nucleotide, or 0 if the position isn't covered.
+     */
+    byte getBestQuality() {
+        return bestQuality;
+    }
+
+    /**
+     * Returns the depth of the position found by the last {@link #call(int)}.
+     *
+     * @return Number of the A, C, G and T nucleotides, that were counted at the position.
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Finds the median quality of the nucleotide at the position by scanning its histogram.
+     * If the number of the qualities is even, then the half of the sum of the two middle
+     * qualities is returned.
+     *
+     * @param cell Index of the nucleotide at the position.
+     * @return Median quality.
+     */
+    private byte getMedianQuality(int cell) {
+        int count = counts[cell];
+        int offset = cell * HISTOGRAM_SIZE;
+        // 0-based ranks of the middle qualities
+        int upper = count / 2, lower = count % 2 != 0 ? upper : upper - 1;
+        int lowerQuality = -1, seen = 0;
+        for (int quality = 0; quality <= MAX_QUALITY; quality++) {
+            seen += histogram[offset + quality];
+            if (lowerQuality < 0 && seen > lower) {
+                lowerQuality = quality;
+            }
+            if (seen > upper) {
+                return (byte) ((lowerQuality + quality) / 2);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,306 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package genome.assembly;
+
+import bam.regular.BEDFeature;
+import exception.GenomeFileException;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Coverage statistics of one feature, that are collected while the feature is assembled:
+ * number of the reads, histogram of the depths of the positions, mean, minimal and maximal
+ * depth and the fraction of the unknown nucleotides. Depth of the position is the number of
+ * the A, C, G and T nucleotides aligned to it, so the position is unknown, if its depth is 0.
+ *
+ * @author Sergey Khvatov
+ */
+public class CoverageStatistics {
+
+    /**
+     * Lower bounds of the bins of the depth histogram.
+     */
+    private static final int[] DEPTH_BINS = {0, 1, 5, 10, 20, 30, 50, 100, 200, 500, 1000};
+
+    /**
+     * Feature, whose positions are counted.
+     */
+    private BEDFeature feature;
+
+    /**
+     * Number of the reads overlapping the feature.
+     */
+    private int readsNumber = 0;
+
+    /**
+     * Number of the assembled positions.
+     */
+    private long positionsNumber = 0;
+
+    /**
+     * Sum of the depths of all the positions.
+     */
+    private long depthSum = 0;
+
+    /**
+     * Minimal depth of the positions.
+     */
+    private int minDepth = Integer.MAX_VALUE;
+
+    /**
+     * Maximal depth of the positions.
+     */
+    private int maxDepth = 0;
+
+    /**
+     * Number of the positions in each bin of the histogram.
+     */
+    private long[] histogram = new long[DEPTH_BINS.length];
+
+    /**
+     * Creates empty statistics of the feature.
+     *
+     * @param feature Feature, whose positions are counted.
+     */
+    public CoverageStatistics(BEDFeature feature) {
+        this.feature = feature;
+    }
+
+    /**
+     * Counts the position of the feature.
+     *
+     * @param depth Depth of the position.
+     */
+    void add(int depth) {
+        add(depth, 1);
+    }
+
+    /**
+     * Counts the positions of the feature with the same depth.
+     *
+     * @param depth Depth of the positions.
+     * @param count Number of the positions.
+     */
+    void add(int depth, long count) {
+        if (count <= 0) {
+            return;
+        }
+        positionsNumber += count;
+        depthSum += depth * count;
+        minDepth = Math.min(minDepth, depth);
+        maxDepth = Math.max(maxDepth, depth);
+        int bin = DEPTH_BINS.length - 1;
+        while (depth < DEPTH_BINS[bin]) {
+            bin--;
+        }
+        histogram[bin] += count;
+    }
+
+    /**
+     * Adds the positions, that were counted by the other statistics of the same feature.
+     *
+     * @param other Statistics of the other positions.
+     */
+    void merge(CoverageStatistics other) {
+        positionsNumber += other.positionsNumber;
+        depthSum += other.depthSum;
+        minDepth = Math.min(minDepth, other.minDepth);
+        maxDepth = Math.max(maxDepth, other.maxDepth);
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] += other.histogram[i];
+        }
+    }
+
+    /**
+     * Creates the copy of the statistics, that belongs to the given feature.
+     *
+     * @param feature Feature, whose positions were counted.
+     * @return Copy of the statistics.
+     */
+    CoverageStatistics copy(BEDFeature feature) {
+        CoverageStatistics copy = new CoverageStatistics(feature);
+        copy.readsNumber = readsNumber;
+        copy.merge(this);
+        return copy;
+    }
+
+    /**
+     * Writes the statistics without the feature in the binary format.
+     *
+     * @param out Output, where the statistics are written.
+     * @throws IOException if error occurs while writing.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(readsNumber);
+        out.writeLong(positionsNumber);
+        out.writeLong(depthSum);
+        out.writeInt(minDepth);
+        out.writeInt(maxDepth);
+        out.writeInt(histogram.length);
+        for (long count : histogram) {
+            out.writeLong(count);
+        }
+    }
+
+    /**
+     * Reads the statistics written by {@link #write(DataOutput)}.
+     *
+     * @param in      Input, where the statistics are read from.
+     * @param feature Feature, whose positions were counted.
+     * @return Read statistics.
+     * @throws IOException if error occurs while reading or the statistics are malformed.
+     */
+    static CoverageStatistics read(DataInput in, BEDFeature feature) throws IOException {
+        CoverageStatistics statistics = new CoverageStatistics(feature);
+        statistics.readsNumber = in.readInt();
+        statistics.positionsNumber = in.readLong();
+        statistics.depthSum = in.readLong();
+        statistics.minDepth = in.readInt();
+        statistics.maxDepth = in.readInt();
+        if (in.readInt() != DEPTH_BINS.length) {
+            throw new IOException("Malformed coverage statistics");
+        }
+        for (int i = 0; i < DEPTH_BINS.length; i++) {
+            statistics.histogram[i] = in.readLong();
+        }
+        return statistics;
+    }
+
+    /**
+     * Sets the number of the reads overlapping the feature.
+     *
+     * @param readsNumber Number of the reads.
+     */
+    void setReadsNumber(int readsNumber) {
+        this.readsNumber = readsNumber;
+    }
+
+    /**
+     * @return feature, whose positions are counted.
+     */
+    public BEDFeature getFeature() {
+        return feature;
+    }
+
+    /**
+     * @return number of the reads overlapping the feature.
+     */
+    public int getReadsNumber() {
+        return readsNumber;
+    }
+
+    /**
+     * @return number of the assembled positions.
+     */
+    public long getPositionsNumber() {
+        return positionsNumber;
+    }
+
+    /**
+     * @return mean depth of the positions, or 0 if there are no positions.
+     */
+    public double getMeanDepth() {
+        return positionsNumber > 0 ? (double) depthSum / positionsNumber : 0;
+    }
+
+    /**
+     * @return minimal depth of the positions, or 0 if there are no positions.
+     */
+    public int getMinDepth() {
+        return positionsNumber > 0 ? minDepth : 0;
+    }
+
+    /**
+     * @return maximal depth of the positions.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return fraction of the positions, that are not covered by any nucleotide.
+     */
+    public double getUnknownFraction() {
+        return positionsNumber > 0 ? (double) histogram[0] / positionsNumber : 0;
+    }
+
+    /**
+     * @return number of the positions in each bin of the depth histogram, see {@link #writeTSV(File, List)}.
+     */
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    /**
+     * Writes the statistics to the file as the tab separated values with the header. The histogram
+     * is written in the columns named by the range of the depths in each bin, e.g. depth_10-19.
+     *
+     * @param file       File, where the statistics are written.
+     * @param statistics Statistics of the features.
+     * @throws GenomeFileException if error occurs while writing the file.
+     */
+    public static void writeTSV(File file, List<CoverageStatistics> statistics) {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            StringBuilder header = new StringBuilder("chrom\tstart\tend\tgene\treads\tpositions\tmean_depth\tmin_depth\tmax_depth\tunknown_fraction");
+            for (int i = 0; i < DEPTH_BINS.length; i++) {
+                header.append("\tdepth_").append(DEPTH_BINS[i]);
+                if (i + 1 == DEPTH_BINS.length) {
+                    header.append('+');
+                } else if (DEPTH_BINS[i + 1] - 1 != DEPTH_BINS[i]) {
+                    header.append('-').append(DEPTH_BINS[i + 1] - 1);
+                }
+            }
+            writer.println(header);
+            for (CoverageStatistics feature : statistics) {
+                StringBuilder line = new StringBuilder();
+                line.append(feature.feature.getChromosomeName()).append('\t').append(feature.feature.getStartPos()).append('\t');
+                line.append(feature.feature.getEndPos()).append('\t').append(feature.feature.getGene()).append('\t');
+                line.append(feature.getReadsNumber()).append('\t').append(feature.getPositionsNumber()).append('\t');
+                line.append(String.format(Locale.ROOT, "%.2f", feature.getMeanDepth())).append('\t');
+                line.append(feature.getMinDepth()).append('\t').append(feature.getMaxDepth()).append('\t');
+                line.append(String.format(Locale.ROOT, "%.4f", feature.getUnknownFraction()));
+                for (long count : feature.histogram) {
+                    line.append('\t').append(count);
+                }
+                writer.println(line);
+            }
+            if (writer.checkError()) {
+                throw new IOException("error while writing");
+            }
+        } catch (IOException ioex) {
+            GenomeFileException gfex = new GenomeFileException(CoverageStatistics.class.getName(), "writeTSV", file.getPath(), ioex.getMessage());
+            gfex.initCause(ioex);
+            throw gfex;
+        }
+    }
+}
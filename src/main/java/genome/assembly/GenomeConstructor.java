@@ -26,34 +26,39 @@ package genome.assembly;
 
 import bam.regular.BEDFeature;
 import exception.GenomeException;
-import htsjdk.samtools.SAMRecord;
-import org.apache.commons.lang3.StringUtils;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 
 /**
  * It is designed to parse the
  * input BAM file and generate / construct the genome that is stored in this BAM file
  * according to the qualities of each nucleotide.
+ * Large features are split into the ranges of regions, that are assembled in parallel
+ * in the common {@link ForkJoinPool} over the same list of the reads.
+ * Consensus may be written straight into the off-heap {@link ConsensusBuffer},
+ * so that the assembled regions don't allocate any arrays on the heap.
  *
  * @author Vladislav Marchenko
  * @author Sergey Khvatov
  */
 public class GenomeConstructor  {
     /**
-     * String of the nucleotides.
+     * Maximum percent of the unknown nucleotides in the sequence.
      */
-    private static final String NUCLEOTIDES = "agct";
+    private static final double UNKNOWN_NUCL_PERCENTAGE = 1.1d;
 
     /**
-     * Maximum percent of the unknown nucleotides in the sequence.
+     * Number of the positions, that are piled up at once.
      */
-    private static final double UNKNOWN_NUCL_PERCENTAGE = 1.1d;
+    private static final int PILEUP_WINDOW = 1024;
 
     /**
-     * Unknown nucleotide symbol.
+     * Consensus kernel of each thread, that is reused for all the windows.
      */
-    private static final char UNKNOWN_NUCLEOTIDE = '*';
+    private static final ThreadLocal<ConsensusKernel> KERNELS = ThreadLocal.withInitial(() -> new ConsensusKernel(PILEUP_WINDOW));
 
     /**
      * Maximum length of the nucleotide sequence to be stored
@@ -61,6 +66,23 @@ public class GenomeConstructor  {
      */
     private static final int MAX_NUCLEOTIDE_SEQ_LEN = 256;
 
+    /**
+     * Distance between the starts of the consecutive regions. The position
+     * right after each full region is not included to any region.
+     */
+    private static final int REGION_STEP = MAX_NUCLEOTIDE_SEQ_LEN + 1;
+
+    /**
+     * Number of the regions, that are assembled by one subtask.
+     */
+    private static final int REGIONS_PER_TASK = 16;
+
+    /**
+     * Number of the regions, that are assembled in parallel before they are
+     * passed to the consumer, so that the regions of the huge features are not kept at once.
+     */
+    private static final int REGIONS_PER_BATCH = 1024;
+
     /**
      * Method, which assembly genome from samrecords and exons
      * @param samRecords input SAMRecordList
@@ -69,20 +91,13 @@ public class GenomeConstructor  {
      * @throws GenomeException if anything went wrong.
      */
     public static List<GenomeRegion> assembly(SAMRecordList samRecords, List<BEDFeature> exons) {
-        try {
-            // output genome
-            List<GenomeRegion> genomeRegions = new ArrayList<>();
-            // we pass through each region from the BED file(each exon)
-            for (BEDFeature exon : exons) {
-                genomeRegions.addAll(assembly(samRecords, exon));
-            }
-            return genomeRegions;
-        } catch (NullPointerException | IllegalArgumentException ex) {
-            // if catch an exception then create our InvalidGenomeAssemblyException exception,
-            GenomeException ibfex = new GenomeException("GenomeConstructor", "assembly", ex.getMessage());
-            ibfex.initCause(ex);
-            throw ibfex;
+        // output genome
+        List<GenomeRegion> genomeRegions = new ArrayList<>();
+        // we pass through each region from the BED file(each exon)
+        for (BEDFeature exon : exons) {
+            assembly(samRecords, exon, genomeRegions::add);
         }
+        return genomeRegions;
     }
 
     /**
@@ -93,91 +108,100 @@ public class GenomeConstructor  {
      * @throws GenomeException if anything went wrong
      */
     public static List<GenomeRegion> assembly(SAMRecordList samRecords, BEDFeature exon) {
+        List<GenomeRegion> genomeRegions = new ArrayList<>();
+        assembly(samRecords, exon, genomeRegions::add);
+        return genomeRegions;
+    }
+
+    /**
+     * Assembles the exon and passes each region to the consumer as soon as it is assembled,
+     * so that the regions of the long features don't have to be kept all at once. Exons
+     * with more than {@link #REGIONS_PER_TASK} regions are assembled in parallel by batches.
+     *
+     * @param samRecords input SAMRecordList
+     * @param exon       input exon
+     * @param consumer   Consumer of the regions in the order of their positions.
+     * @throws GenomeException if anything went wrong
+     */
+    public static void assembly(SAMRecordList samRecords, BEDFeature exon, Consumer<GenomeRegion> consumer) {
+        assembly(samRecords, exon, consumer, null);
+    }
+
+    /**
+     * Assembles the exon and passes each region to the consumer as soon as it is assembled,
+     * counting the depth of each assembled position on the way.
+     *
+     * @param samRecords input SAMRecordList
+     * @param exon       input exon
+     * @param consumer   Consumer of the regions in the order of their positions.
+     * @param statistics Coverage statistics of the exon, that are filled, or null.
+     * @throws GenomeException if anything went wrong
+     */
+    public static void assembly(SAMRecordList samRecords, BEDFeature exon, Consumer<GenomeRegion> consumer, CoverageStatistics statistics) {
+        assembly(samRecords, exon, consumer, statistics, null);
+    }
+
+    /**
+     * Assembles the exon into the consensus buffer and passes the view of each region
+     * to the consumer as soon as it is assembled, counting the depth of each assembled position on the way.
+     *
+     * @param samRecords input SAMRecordList
+     * @param exon       input exon
+     * @param consumer   Consumer of the regions in the order of their positions.
+     * @param statistics Coverage statistics of the exon, that are filled, or null.
+     * @param buffer     Consensus buffer, where the regions are assembled, or null if they are assembled on the heap.
+     * @throws GenomeException if anything went wrong
+     */
+    public static void assembly(SAMRecordList samRecords, BEDFeature exon, Consumer<GenomeRegion> consumer, CoverageStatistics statistics, ConsensusBuffer buffer) {
         try {
+            int regionsNumber = getRegionsNumber(exon);
+            if (statistics != null) {
+                int readsNumber = 0;
+                for (AlignedRead ignored : samRecords.getSAMRecordList(exon.getStartPos(), exon.getEndPos() - 1)) {
+                    readsNumber++;
+                }
+                statistics.setReadsNumber(readsNumber);
+            }
+
             // check the input
             if (samRecords.isEmpty()) {
                 //throw new GenomeException("GenomeConstructor", "assembly", "samRecords", "is empty");
-                return new ArrayList<>();
+                if (statistics != null) {
+                    // none of the positions is covered, the position after each full region is skipped
+                    statistics.add(0, exon.getEndPos() - exon.getStartPos() - (regionsNumber - 1));
+                }
+                return;
             }
 
-            // list of regions
-            List<GenomeRegion> genomeRegions = new ArrayList<>();
-            // temp quality array
-            byte[] qualities = new byte[MAX_NUCLEOTIDE_SEQ_LEN];
-            // String of nucleotides from the current region
-            StringBuilder nucleotides = new StringBuilder();
-            // start position for each new smaller genome region
-            int currentStartPos = exon.getStartPos();
-
             // temp variables used
             // to calculate the percentage of the
             // unknown nucleotides in the sequence.
-            int nucleotideSeqLen = 0;
-            int unknownNucleotidesNum = 0;
-
-            // we pass from start position to end position of current region
-            for (int j = exon.getStartPos(); j < exon.getEndPos(); j++) {
-                // HashMap in which there are nucleotides(with their qualities; see description of the method)
-                // from current position
-                Map<Character, List<Byte>> currentNucleotides = getNucleotideDistribution(samRecords.getSAMRecordList(j), j);
-                // the best nucleotide(if there are not any nucleotides, we write a *)
-                char bestNucleotide = UNKNOWN_NUCLEOTIDE;
-                // the best median quality of nucleotide
-                byte bestQuality = 0;
-                // the best count of nucleotides
-                int bestCount = 0;
-
-                // we pass on HashMap ( we define the best nucleotide)
-                Set<Map.Entry<Character, List<Byte>>> set = currentNucleotides.entrySet();
-                for (Map.Entry<Character, List<Byte>> s : set) {
-                    // if the current nucleotide is the most met then it is the best nucleotide
-                    if (s.getValue().size() > bestCount) {
-                        bestCount = s.getValue().size();
-                        bestNucleotide = s.getKey();
-                        bestQuality = getMedianQuality(s.getValue());
-                    }
-                    // if the current nucleotide occurs as many times as the best, then we look at their quality
-                    if (s.getValue().size() == bestCount) {
-                        // if the current nucleotide has the best quality, then it is the best
-                        if (getMedianQuality(s.getValue()) > bestQuality) {
-                            bestCount = s.getValue().size();
-                            bestNucleotide = s.getKey();
-                            bestQuality = getMedianQuality(s.getValue());
-                        }
-                    }
+            int[] nucleotides = new int[2];
+            Consumer<GenomeRegion> counter = region -> {
+                nucleotides[0] += region.getNucleotideLength();
+                for (int i = 0; i < region.getWordCount(); i++) {
+                    nucleotides[1] += Integer.bitCount(region.getUnknownMask(i));
                 }
+                consumer.accept(region);
+            };
 
-                if (nucleotides.length() < MAX_NUCLEOTIDE_SEQ_LEN) {
-                    // add the best nucleotide into the nucleotide sequence from the current region
-                    nucleotides.append(bestNucleotide);
-                    // add the quality of this nucleotide
-                    qualities[j - currentStartPos] = bestQuality;
-                } else {
-                    // add region to the output
-                    genomeRegions.add(new GenomeRegion(exon.getChromosomeName(), currentStartPos, nucleotides.toString().toUpperCase(), qualities, exon.getGene()));
-                    // reset temporary values
-                    nucleotides.setLength(0);
-                    Arrays.fill(qualities, (byte) 0);
-                    currentStartPos = j + 1;
-                    // add number of the nucleotides and number of the unknown nucleotides
-                    nucleotideSeqLen += MAX_NUCLEOTIDE_SEQ_LEN;
-                    unknownNucleotidesNum += StringUtils.countMatches(nucleotides, UNKNOWN_NUCLEOTIDE);
+            if (regionsNumber <= REGIONS_PER_TASK) {
+                assembly(samRecords, exon, 0, regionsNumber, counter, statistics, buffer);
+            } else {
+                for (int first = 0; first < regionsNumber; first += REGIONS_PER_BATCH) {
+                    RegionsTask task = new RegionsTask(samRecords, exon, first, Math.min(regionsNumber, first + REGIONS_PER_BATCH), statistics != null, buffer);
+                    ForkJoinPool.commonPool().invoke(task).forEach(counter);
+                    if (statistics != null) {
+                        statistics.merge(task.statistics);
+                    }
                 }
             }
 
-            // add last processed region to the output
-            genomeRegions.add(new GenomeRegion(exon.getChromosomeName(), currentStartPos, nucleotides.toString().toUpperCase(), Arrays.copyOf(qualities, nucleotides.length()), exon.getGene()));
-            // add number of the nucleotides and number of the unknown nucleotides
-            nucleotideSeqLen += nucleotides.length();
-            unknownNucleotidesNum += StringUtils.countMatches(nucleotides, UNKNOWN_NUCLEOTIDE);
-
             // check the percentage of the *
             // in nucleotide sequence
-            if ((double)unknownNucleotidesNum / nucleotideSeqLen > UNKNOWN_NUCL_PERCENTAGE) {
+            if ((double) nucleotides[1] / nucleotides[0] > UNKNOWN_NUCL_PERCENTAGE) {
                 throw new GenomeException("GenomeConstructor", "assembly", ">= 20% of the nucleotides are unknown");
             }
-
-            return genomeRegions;
         } catch (NullPointerException | IllegalArgumentException ex) {
             // if catch an exception then create our InvalidGenomeAssemblyException exception,
             GenomeException ibfex = new GenomeException("GenomeConstructor", "assembly", ex.getMessage());
@@ -187,58 +211,149 @@ public class GenomeConstructor  {
     }
 
     /**
-     * Generates a map with each nucleotide and it's quality for the further usage.
+     * Counts the regions of the exon. Each region contains {@link #MAX_NUCLEOTIDE_SEQ_LEN}
+     * positions, except the last one, that contains the rest of them and may be empty.
      *
-     * @param samRecords List of SAMRecords with the position
-     * @param position  Current position of the nucleotide we are analyzing.
-     * @return HashMap with qualities for this nucleotide.
+     * @param exon input exon
+     * @return Number of the regions.
      */
-    private static Map<Character, List<Byte>> getNucleotideDistribution(List<SAMRecord> samRecords, int position) {
-        // initialize the storing structure
-        Map<Character, List<Byte>> dist = new HashMap<>();
-        for (char c : NUCLEOTIDES.toCharArray()) {
-            dist.put(c, new ArrayList<>());
-        }
+    private static int getRegionsNumber(BEDFeature exon) {
+        return (exon.getEndPos() - exon.getStartPos()) / REGION_STEP + 1;
+    }
 
-        // for each read getSAMRecordList the
-        // nucleotide and it's quality if it contains it
-        for (SAMRecord s : samRecords) {
-            int pos = position - s.getStart();
-            char n = ' ';
-            byte q = 0;
-            if (pos < s.getReadLength() && pos >= 0) {
-                n = Character.toLowerCase(s.getReadString().charAt(pos));
-                q = s.getBaseQualities()[pos];
-            }
-            if (NUCLEOTIDES.contains(String.valueOf(n))) {
-                dist.get(n).add(q);
+    /**
+     * Assembles the range of the regions of the exon using the pileup of the reads.
+     *
+     * @param samRecords  input SAMRecordList
+     * @param exon        input exon
+     * @param firstRegion Index of the first region of the range.
+     * @param lastRegion  Index of the region after the range.
+     * @param consumer    Consumer of the regions in the order of their positions.
+     * @param statistics  Coverage statistics, where the depths of the positions are counted, or null.
+     * @param buffer      Consensus buffer, where the regions are assembled, or null.
+     */
+    private static void assembly(SAMRecordList samRecords, BEDFeature exon, int firstRegion, int lastRegion, Consumer<GenomeRegion> consumer, CoverageStatistics statistics, ConsensusBuffer buffer) {
+        ReadPileup pileup = new ReadPileup(samRecords);
+        ConsensusKernel kernel = KERNELS.get();
+        // first position of the window, that is piled up in the kernel
+        int windowStart = Integer.MIN_VALUE / 2;
+
+        for (int region = firstRegion; region < lastRegion; region++) {
+            // start position and length of the region
+            int currentStartPos = exon.getStartPos() + region * REGION_STEP;
+            int length = Math.min(MAX_NUCLEOTIDE_SEQ_LEN, exon.getEndPos() - currentStartPos);
+            // view of the region in the buffer, or string of nucleotides and quality array
+            GenomeRegion view = buffer != null ? buffer.allocate(exon.getChromosomeName(), currentStartPos, length, exon.getGene()) : null;
+            StringBuilder nucleotides = view == null ? new StringBuilder(length) : null;
+            byte[] qualities = view == null ? new byte[length] : null;
+
+            // we pass from start position to end position of current region
+            for (int j = currentStartPos; j < currentStartPos + length; j++) {
+                if (j - windowStart >= kernel.getWidth()) {
+                    // count the nucleotides and their qualities in the next window,
+                    // walking the alignment blocks of each read overlapping it once
+                    windowStart = j;
+                    kernel.reset();
+                    for (AlignedRead read : pileup.moveTo(windowStart, windowStart + kernel.getWidth() - 1)) {
+                        kernel.add(read, windowStart);
+                    }
+                }
+                // the best nucleotide(if there are not any nucleotides, we write a *)
+                // and its median quality
+                kernel.call(j - windowStart);
+                if (view != null) {
+                    view.setNucleotide(j - currentStartPos, kernel.getBestNucleotide(), kernel.getBestQuality());
+                } else {
+                    nucleotides.append(kernel.getBestNucleotide());
+                    qualities[j - currentStartPos] = kernel.getBestQuality();
+                }
+                if (statistics != null) {
+                    statistics.add(kernel.getDepth());
+                }
             }
+
+            // add region to the output
+            consumer.accept(view != null ? view : new GenomeRegion(exon.getChromosomeName(), currentStartPos, nucleotides.toString(), qualities, exon.getGene()));
         }
-        return dist;
     }
 
     /**
-     * method for definition of median quality of the nucleotide
-     *
-     * @param qualities input array of qualities of the nucleotide
-     * @return median quality of the nucleotide
+     * Task, that assembles the range of the regions of the exon, splitting it
+     * into the subtasks of {@link #REGIONS_PER_TASK} regions.
      */
-    private static byte getMedianQuality(List<Byte> qualities) {
-        // sort ArrayList of qualities
-        Collections.sort(qualities);
+    private static class RegionsTask extends RecursiveTask<List<GenomeRegion>> {
 
-        // if the number of elements is odd, then we take the middle element
-        if (qualities.size() % 2 != 0) {
-            return qualities.get(qualities.size() / 2);
-        }
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Reads, that are shared by all the subtasks.
+         */
+        private SAMRecordList samRecords;
+
+        /**
+         * Exon, that is assembled.
+         */
+        private BEDFeature exon;
+
+        /**
+         * Index of the first region of the range.
+         */
+        private int firstRegion;
+
+        /**
+         * Index of the region after the range.
+         */
+        private int lastRegion;
 
-        // else return half of the sum of the two middle elements of the array
-        else if (!qualities.isEmpty()) {
-            return (byte) ((qualities.get(qualities.size() / 2) + qualities.get(qualities.size() / 2 - 1)) / 2);
+        /**
+         * Coverage statistics of the positions of the range, or null.
+         */
+        private CoverageStatistics statistics;
+
+        /**
+         * Consensus buffer, where the regions are assembled, or null.
+         */
+        private ConsensusBuffer buffer;
+
+        /**
+         * Creates the task from the range of the regions.
+         *
+         * @param samRecords  input SAMRecordList
+         * @param exon        input exon
+         * @param firstRegion Index of the first region of the range.
+         * @param lastRegion  Index of the region after the range.
+         * @param statistics  True, if the coverage statistics of the range are collected.
+         * @param buffer      Consensus buffer, where the regions are assembled, or null.
+         */
+        RegionsTask(SAMRecordList samRecords, BEDFeature exon, int firstRegion, int lastRegion, boolean statistics, ConsensusBuffer buffer) {
+            this.samRecords = samRecords;
+            this.exon = exon;
+            this.firstRegion = firstRegion;
+            this.lastRegion = lastRegion;
+            this.statistics = statistics ? new CoverageStatistics(exon) : null;
+            this.buffer = buffer;
         }
-        // if there are not any nucleotides, return 0
-        else {
-            return 0;
+
+        @Override
+        protected List<GenomeRegion> compute() {
+            List<GenomeRegion> regions = new ArrayList<>(lastRegion - firstRegion);
+            if (lastRegion - firstRegion <= REGIONS_PER_TASK) {
+                assembly(samRecords, exon, firstRegion, lastRegion, regions::add, statistics, buffer);
+                return regions;
+            }
+            // the regions of the halves are stitched in the order of their positions
+            int middleRegion = (firstRegion + lastRegion) >>> 1;
+            RegionsTask first = new RegionsTask(samRecords, exon, firstRegion, middleRegion, statistics != null, buffer);
+            RegionsTask second = new RegionsTask(samRecords, exon, middleRegion, lastRegion, statistics != null, buffer);
+            first.fork();
+            List<GenomeRegion> secondRegions = second.compute();
+            regions.addAll(first.join());
+            regions.addAll(secondRegions);
+            if (statistics != null) {
+                statistics.merge(first.statistics);
+                statistics.merge(second.statistics);
+            }
+            return regions;
         }
     }
-}
\ No newline at end of file
+}
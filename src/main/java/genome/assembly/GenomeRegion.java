@@ -27,19 +27,53 @@ package genome.assembly;
 import exception.GenomeException;
 import util.Pair;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * This class stores genome information and data for each region in BED file.
+ * Nucleotides are packed by 2 bits into the 64-bit words, and the unknown
+ * nucleotides are marked in a separate bit mask, so the comparators may
+ * process the sequence a word at a time. Qualities may be binned into 8 levels
+ * and packed by 4 bits, when they are only needed approximately.
+ * Regions assembled into the {@link ConsensusBuffer} don't have their own arrays
+ * and are only the views of the parts of its off-heap segments.
  *
  * @author Sergey Khvatov
  */
 public class GenomeRegion {
 
+    /**
+     * Number of the nucleotides packed into one word.
+     */
+    public static final int NUCLEOTIDES_PER_WORD = Long.SIZE / 2;
+
+    /**
+     * Nucleotides in the order of their 2-bit codes.
+     */
+    public static final String NUCLEOTIDES = "ACGT";
+
+    /**
+     * Unknown nucleotide symbol.
+     */
+    public static final char UNKNOWN_NUCLEOTIDE = '*';
+
     /**
      * Regular expression that contains all
      * the allowed symbols for the gene name.
      */
     private static final String ALLOWED_SYMBOLS_REGEXP = "[a-zA-Z0-9.\\-_+]*";
 
+    /**
+     * Lower bounds of the quality bins.
+     */
+    private static final byte[] QUALITY_BIN_BOUNDS = {0, 2, 10, 20, 25, 30, 35, 40};
+
+    /**
+     * Quality, that represents each bin.
+     */
+    private static final byte[] QUALITY_BIN_VALUES = {0, 6, 15, 22, 27, 33, 37, 40};
 
     /**
      * Name of the chromosome
@@ -48,9 +82,21 @@ public class GenomeRegion {
     private String chrom;
 
     /**
-     * Nucleotide sequence in this chromosome.
+     * Nucleotides of the sequence packed by 2 bits, the nucleotide i
+     * is stored in the bits {@code 2 * (i % 32)} of the word {@code i / 32}.
+     */
+    private long[] packedNucleotides;
+
+    /**
+     * Mask of the unknown nucleotides, the bit {@code i % 32} of the
+     * element {@code i / 32} is set, if the nucleotide i is unknown.
      */
-    private String nucleotideSeq;
+    private int[] unknownMask;
+
+    /**
+     * Length of the nucleotide sequence.
+     */
+    private int length;
 
     /**
      * Start position of the nucleotide sequence.
@@ -58,15 +104,32 @@ public class GenomeRegion {
     private int startPos;
 
     /**
-     * Array of qualities for each nucleotide in the sequence.
+     * Array of qualities for each nucleotide in the sequence,
+     * or the indexes of the quality bins packed by 4 bits.
      */
     private byte[] nucleotideQuality;
 
+    /**
+     * True, if the qualities are binned.
+     */
+    private boolean binnedQualities;
+
     /**
      * Name of the gene that is located in this genome region.
      */
     private String gene;
 
+    /**
+     * Segment of the consensus buffer, that contains the nucleotides
+     * and qualities, or null if they are stored in the arrays.
+     */
+    private ConsensusBuffer.Segment segment;
+
+    /**
+     * Position of the first nucleotide in the segment, that is a multiple of {@link #NUCLEOTIDES_PER_WORD}.
+     */
+    private int offset;
+
     /**
      * Default class constructor from the base information about each region in the bam file.
      *
@@ -78,6 +141,23 @@ public class GenomeRegion {
      * @throws GenomeException if starting position of the nucleotide sequence is < 0.
      */
     public GenomeRegion(String chrom, int pos, String seq, byte[] quality, String gene) {
+        this(chrom, pos, seq, quality, gene, false);
+    }
+
+    /**
+     * Class constructor from the base information about each region in the bam file,
+     * that may bin the qualities.
+     *
+     * @param chrom          Name of the chromosome.
+     * @param pos            Starting position.
+     * @param seq            Nucleotide sequence of A, C, G, T and * symbols in any case.
+     * @param quality        Arrays of qualities for each nucleotide in the sequence.
+     * @param gene           Name of the gene.
+     * @param binQualities   If true, then the qualities are binned into 8 levels.
+     * @throws GenomeException if starting position of the nucleotide sequence is < 0
+     *                         or the sequence contains other symbols.
+     */
+    public GenomeRegion(String chrom, int pos, String seq, byte[] quality, String gene, boolean binQualities) {
         // set the name of the chromosome
         this.chrom = chrom;
 
@@ -86,7 +166,6 @@ public class GenomeRegion {
             throw new GenomeException(this.getClass().getName(), "GenomeRegion", "pos", " < 0");
         }
         this.startPos = pos;
-        this.nucleotideSeq = seq;
         this.gene = gene;
 
         if (!gene.matches(ALLOWED_SYMBOLS_REGEXP)) {
@@ -97,23 +176,290 @@ public class GenomeRegion {
         if (quality.length != seq.length()) {
             throw new GenomeException(this.getClass().getName(), "GenomeRegion", "seq", "not equals to the len of nucleotide sequence");
         }
+        packNucleotides(seq);
+        this.binnedQualities = binQualities;
+        this.nucleotideQuality = binQualities ? packQualityBins(quality) : quality;
+    }
+
+    /**
+     * Class constructor from the already packed nucleotides and qualities.
+     *
+     * @param chrom             Name of the chromosome.
+     * @param pos               Starting position.
+     * @param length            Length of the nucleotide sequence.
+     * @param packedNucleotides Nucleotides packed by 2 bits.
+     * @param unknownMask       Mask of the unknown nucleotides.
+     * @param quality           Qualities, or the packed indexes of the quality bins.
+     * @param binnedQualities   True, if the qualities are binned.
+     * @param gene              Name of the gene.
+     */
+    private GenomeRegion(String chrom, int pos, int length, long[] packedNucleotides, int[] unknownMask, byte[] quality, boolean binnedQualities, String gene) {
+        this.chrom = chrom;
+        this.startPos = pos;
+        this.length = length;
+        this.packedNucleotides = packedNucleotides;
+        this.unknownMask = unknownMask;
         this.nucleotideQuality = quality;
+        this.binnedQualities = binnedQualities;
+        this.gene = gene;
+    }
+
+    /**
+     * Class constructor of the view of the part of the consensus buffer segment.
+     *
+     * @param chrom   Name of the chromosome.
+     * @param pos     Starting position.
+     * @param length  Length of the nucleotide sequence.
+     * @param gene    Name of the gene.
+     * @param segment Segment of the consensus buffer.
+     * @param offset  Position of the first nucleotide in the segment.
+     */
+    GenomeRegion(String chrom, int pos, int length, String gene, ConsensusBuffer.Segment segment, int offset) {
+        this.chrom = chrom;
+        this.startPos = pos;
+        this.length = length;
+        this.gene = gene;
+        this.segment = segment;
+        this.offset = offset;
+    }
+
+    /**
+     * Sets the nucleotide of the region, that is the view of the consensus buffer,
+     * while it is assembled. Each nucleotide may be set only once.
+     *
+     * @param pos        Position of the nucleotide in the sequence.
+     * @param nucleotide Nucleotide in any case, or '*' if it's unknown.
+     * @param quality    Quality of the nucleotide.
+     * @throws GenomeException if the region is not a view or the nucleotide is not one of A, C, G, T and *.
+     */
+    void setNucleotide(int pos, char nucleotide, byte quality) {
+        if (segment == null) {
+            throw new GenomeException(this.getClass().getName(), "setNucleotide", "region", "is not a view of the consensus buffer");
+        }
+        checkPosition(pos, "setNucleotide");
+        segment.set(offset + pos, nucleotide, quality);
+    }
+
+    /**
+     * Writes the region in the packed form.
+     *
+     * @param out Output, where the region is written.
+     * @throws IOException if error occurs while writing.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(chrom);
+        out.writeInt(startPos);
+        out.writeUTF(gene);
+        out.writeInt(length);
+        for (int i = 0; i < getWordCount(); i++) {
+            out.writeLong(getPackedWord(i));
+            out.writeInt(getUnknownMask(i));
+        }
+        out.writeBoolean(binnedQualities);
+        if (segment == null) {
+            out.writeInt(nucleotideQuality.length);
+            out.write(nucleotideQuality);
+        } else {
+            // the views are read back into the arrays
+            out.writeInt(length);
+            for (int i = 0; i < length; i++) {
+                out.writeByte(segment.getQuality(offset + i));
+            }
+        }
+    }
+
+    /**
+     * Reads the region, that was written by {@link #write(DataOutput)}.
+     *
+     * @param in Input, where the region is read from.
+     * @return Region.
+     * @throws IOException if error occurs while reading or the region is malformed.
+     */
+    static GenomeRegion read(DataInput in) throws IOException {
+        String chrom = in.readUTF();
+        int pos = in.readInt();
+        String gene = in.readUTF();
+        int length = in.readInt();
+        if (pos < 0 || length < 0) {
+            throw new IOException("Malformed genome region: " + chrom + ":" + pos);
+        }
+        int words = (length + NUCLEOTIDES_PER_WORD - 1) / NUCLEOTIDES_PER_WORD;
+        long[] packedNucleotides = new long[words];
+        int[] unknownMask = new int[words];
+        for (int i = 0; i < words; i++) {
+            packedNucleotides[i] = in.readLong();
+            unknownMask[i] = in.readInt();
+        }
+        boolean binnedQualities = in.readBoolean();
+        byte[] quality = new byte[in.readInt()];
+        if (quality.length != (binnedQualities ? (length + 1) / 2 : length)) {
+            throw new IOException("Malformed genome region: " + chrom + ":" + pos);
+        }
+        in.readFully(quality);
+        return new GenomeRegion(chrom, pos, length, packedNucleotides, unknownMask, quality, binnedQualities, gene);
+    }
+
+    /**
+     * Packs the nucleotide sequence by 2 bits and marks the unknown nucleotides.
+     *
+     * @param seq Nucleotide sequence.
+     * @throws GenomeException if the sequence contains other symbols.
+     */
+    private void packNucleotides(String seq) {
+        this.length = seq.length();
+        int words = (length + NUCLEOTIDES_PER_WORD - 1) / NUCLEOTIDES_PER_WORD;
+        this.packedNucleotides = new long[words];
+        this.unknownMask = new int[words];
+        for (int i = 0; i < length; i++) {
+            char nucleotide = seq.charAt(i);
+            if (nucleotide == UNKNOWN_NUCLEOTIDE) {
+                unknownMask[i / NUCLEOTIDES_PER_WORD] |= 1 << (i % NUCLEOTIDES_PER_WORD);
+                continue;
+            }
+            int code = NUCLEOTIDES.indexOf(Character.toUpperCase(nucleotide));
+            if (code < 0) {
+                throw new GenomeException(this.getClass().getName(), "GenomeRegion", "seq", "contains unknown symbol " + nucleotide);
+            }
+            packedNucleotides[i / NUCLEOTIDES_PER_WORD] |= (long) code << (2 * (i % NUCLEOTIDES_PER_WORD));
+        }
+    }
+
+    /**
+     * Bins the qualities and packs the indexes of the bins by 4 bits.
+     *
+     * @param quality Qualities of the nucleotides.
+     * @return Packed indexes of the bins.
+     */
+    private static byte[] packQualityBins(byte[] quality) {
+        byte[] packed = new byte[(quality.length + 1) / 2];
+        for (int i = 0; i < quality.length; i++) {
+            int bin = QUALITY_BIN_BOUNDS.length - 1;
+            while (bin > 0 && quality[i] < QUALITY_BIN_BOUNDS[bin]) {
+                bin--;
+            }
+            packed[i / 2] |= bin << (4 * (i % 2));
+        }
+        return packed;
     }
 
     /**
      * Returns information about nucleotide on the position pos, where pos is in range [0, len).
+     * {@link #getNucleotideSymbol(int)} and {@link #getQuality(int)} should be used
+     * instead in the loops, as they don't create any objects.
      *
      * @param pos Position of the nucleotide in the sequence.
      * @return Pair of nucleotide and it's quality.
      * @throws GenomeException if pos is < 0 or len < pos.
      */
     public Pair<Character, Byte> getNucleotide(int pos) {
-        if (pos < 0 || pos >= nucleotideSeq.length()) {
-            throw new GenomeException(this.getClass().getName(), "getNucleotide", "pos", "is not in range(0, len)");
+        return new Pair<>(getNucleotideSymbol(pos), getQuality(pos));
+    }
+
+    /**
+     * Returns the nucleotide on the position pos, where pos is in range [0, len).
+     *
+     * @param pos Position of the nucleotide in the sequence.
+     * @return Nucleotide in the upper case, or '*' if it's unknown.
+     * @throws GenomeException if pos is < 0 or len < pos.
+     */
+    public char getNucleotideSymbol(int pos) {
+        checkPosition(pos, "getNucleotideSymbol");
+        return isUnknown(pos) ? UNKNOWN_NUCLEOTIDE : NUCLEOTIDES.charAt(getNucleotideCode(pos));
+    }
+
+    /**
+     * Returns the 2-bit code of the nucleotide on the position pos, where pos is in range [0, len).
+     *
+     * @param pos Position of the nucleotide in the sequence.
+     * @return Index of the nucleotide in {@link #NUCLEOTIDES}, 0 if it's unknown.
+     */
+    public int getNucleotideCode(int pos) {
+        if (segment != null) {
+            return (int) (segment.getPackedWord((offset + pos) / NUCLEOTIDES_PER_WORD) >>> (2 * (pos % NUCLEOTIDES_PER_WORD))) & 3;
+        }
+        return (int) (packedNucleotides[pos / NUCLEOTIDES_PER_WORD] >>> (2 * (pos % NUCLEOTIDES_PER_WORD))) & 3;
+    }
+
+    /**
+     * Checks if the nucleotide on the position pos, where pos is in range [0, len), is unknown.
+     *
+     * @param pos Position of the nucleotide in the sequence.
+     * @return True, if the nucleotide wasn't read.
+     */
+    public boolean isUnknown(int pos) {
+        if (segment != null) {
+            return (segment.getUnknownMask((offset + pos) / NUCLEOTIDES_PER_WORD) & 1 << (pos % NUCLEOTIDES_PER_WORD)) != 0;
+        }
+        return (unknownMask[pos / NUCLEOTIDES_PER_WORD] & 1 << (pos % NUCLEOTIDES_PER_WORD)) != 0;
+    }
+
+    /**
+     * Returns the quality of the nucleotide on the position pos, where pos is in range [0, len).
+     *
+     * @param pos Position of the nucleotide in the sequence.
+     * @return Quality of the nucleotide, or the quality representing its bin, if the qualities are binned.
+     * @throws GenomeException if pos is < 0 or len < pos.
+     */
+    public byte getQuality(int pos) {
+        checkPosition(pos, "getQuality");
+        if (segment != null) {
+            return segment.getQuality(offset + pos);
         }
-        return new Pair<>(nucleotideSeq.charAt(pos), nucleotideQuality[pos]);
+        if (binnedQualities) {
+            return QUALITY_BIN_VALUES[nucleotideQuality[pos / 2] >>> (4 * (pos % 2)) & 0xF];
+        }
+        return nucleotideQuality[pos];
     }
 
+    /**
+     * Returns the number of the words, that the nucleotides are packed into.
+     *
+     * @return Number of the words.
+     */
+    public int getWordCount() {
+        return (length + NUCLEOTIDES_PER_WORD - 1) / NUCLEOTIDES_PER_WORD;
+    }
+
+    /**
+     * Returns the word of the packed nucleotides. The word i contains the nucleotides
+     * from {@code 32 * i}, each in 2 bits starting from the lowest ones. Unknown nucleotides
+     * and the positions after the end of the sequence are packed as 0.
+     *
+     * @param index Index of the word.
+     * @return Word of the packed nucleotides.
+     */
+    public long getPackedWord(int index) {
+        if (segment != null) {
+            return segment.getPackedWord(offset / NUCLEOTIDES_PER_WORD + index);
+        }
+        return packedNucleotides[index];
+    }
+
+    /**
+     * Returns the mask of the unknown nucleotides in the word of the packed nucleotides.
+     *
+     * @param index Index of the word.
+     * @return Mask, where the bit j is set, if the nucleotide {@code 32 * index + j} is unknown.
+     */
+    public int getUnknownMask(int index) {
+        if (segment != null) {
+            return segment.getUnknownMask(offset / NUCLEOTIDES_PER_WORD + index);
+        }
+        return unknownMask[index];
+    }
+
+    /**
+     * Checks the position of the nucleotide.
+     *
+     * @param pos    Position of the nucleotide in the sequence.
+     * @param method Name of the calling method.
+     * @throws GenomeException if pos is < 0 or len < pos.
+     */
+    private void checkPosition(int pos, String method) {
+        if (pos < 0 || pos >= length) {
+            throw new GenomeException(this.getClass().getName(), method, "pos", "is not in range(0, len)");
+        }
+    }
     /**
      * Returns normalized position of the nucleotide in this nucleotide sequence.
      *
@@ -122,7 +468,7 @@ public class GenomeRegion {
      * @throws GenomeException if nucleotide is not in the range of this nucleotide sequence.
      */
     public int normalize(int position) {
-        if (position < startPos || position > startPos + nucleotideSeq.length()) {
+        if (position < startPos || position > startPos + length) {
             throw new GenomeException(this.getClass().getName(), "getNucleotide", "pos", "is not in range(startPos, startPos + len)");
         }
         return position - startPos;
@@ -152,14 +498,20 @@ public class GenomeRegion {
      * @return The length of the nucleotide sequence.
      */
     public int getNucleotideLength() {
-        return nucleotideSeq.length();
+        return length;
     }
 
     /**
+     * Unpacks the nucleotide sequence. A new string is created by each call.
+     *
      * @return nucleotide sequence from this region.
      */
     public String getNucleotideSequence() {
-        return nucleotideSeq;
+        char[] seq = new char[length];
+        for (int i = 0; i < length; i++) {
+            seq[i] = isUnknown(i) ? UNKNOWN_NUCLEOTIDE : NUCLEOTIDES.charAt(getNucleotideCode(i));
+        }
+        return new String(seq);
     }
 
     /**
@@ -0,0 +1,117 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package genome.assembly;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pileup of the reads, that walks the positions in ascending order and keeps the
+ * window of the reads covering the current position or range of positions. Reads
+ * enter the window, when their start position is reached, and leave it after their
+ * end position, so each read is visited once when entering and once when leaving,
+ * instead of searching the covering reads anew for each position. The pileup over
+ * the {@link SAMRecordList} starts from the first read, that may overlap the range.
+ *
+ * @author Sergey Khvatov
+ */
+class ReadPileup {
+
+    /**
+     * Reads sorted by the start position.
+     */
+    private List<AlignedRead> reads;
+
+    /**
+     * Index of the first read, that hasn't entered the window yet.
+     */
+    private int next = 0;
+
+    /**
+     * Current start position of the pileup.
+     */
+    private long position = Long.MIN_VALUE;
+
+    /**
+     * Reads covering the current position.
+     */
+    private List<AlignedRead> window = new ArrayList<>();
+
+    /**
+     * Creates the pileup, that is positioned before the first read.
+     *
+     * @param reads Reads sorted by the start position.
+     */
+    ReadPileup(List<AlignedRead> reads) {
+        this.reads = reads;
+    }
+
+    /**
+     * Moves the pileup to the position. If the position is before the current
+     * one, then the pileup is walked again from the first read.
+     *
+     * @param position Position on the reference.
+     * @return Reads covering the position. The list is reused by the next call.
+     */
+    List<AlignedRead> moveTo(long position) {
+        return moveTo(position, position);
+    }
+
+    /**
+     * Moves the pileup to the range of the positions. If the range starts before
+     * the current one, then the pileup is walked again from the first read.
+     *
+     * @param start First position of the range on the reference.
+     * @param end   Last position of the range on the reference.
+     * @return Reads overlapping the range. The list is reused by the next call.
+     */
+    List<AlignedRead> moveTo(long start, long end) {
+        if (start < this.position || this.position == Long.MIN_VALUE) {
+            // the reads, that end before the range, are skipped with the index of the list
+            next = reads instanceof SAMRecordList ? ((SAMRecordList) reads).getFirstOverlappingIndex(start) : 0;
+            window.clear();
+        }
+        this.position = start;
+
+        // reads, that end before the range, leave the window
+        int kept = 0;
+        for (int i = 0; i < window.size(); i++) {
+            AlignedRead read = window.get(i);
+            if (read.getEnd() >= start) {
+                window.set(kept++, read);
+            }
+        }
+        window.subList(kept, window.size()).clear();
+
+        // reads, that start before the end of the range, enter the window
+        while (next < reads.size() && reads.get(next).getStart() <= end) {
+            AlignedRead read = reads.get(next++);
+            if (read.getEnd() >= start) {
+                window.add(read);
+            }
+        }
+        return window;
+    }
+}
@@ -24,146 +24,226 @@
 
 package genome.assembly;
 
-import htsjdk.samtools.SAMRecord;
-
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.List;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
- * Custom collection for storage SAMRecords sorted by the start position
+ * Custom collection for storage of the reads sorted by the start position.
+ * Reads are stored as compact {@link AlignedRead} objects instead of the full SAMRecords.
+ * The same read object is stored only once. Reads overlapping any range are found with
+ * the index of the maximal end position of the reads up to each one, that is built
+ * lazily after the list was modified.
  *
  * @author Vladislav Marchenko
  */
-public class SAMRecordList extends ArrayList<SAMRecord> {
+public class SAMRecordList extends ArrayList<AlignedRead> {
+
+    /**
+     * Maximal end position of the reads from the first one to each one.
+     */
+    private int[] maxEnds = new int[0];
+
+    /**
+     * Modification count of the list, when the index was built.
+     */
+    private int indexedModCount = -1;
 
     /**
-     * Overridden method for adding a SAMRecord into sorted ArrayList by using binary search
+     * Creates an empty list.
+     */
+    public SAMRecordList() {
+        super();
+    }
+
+    /**
+     * Creates a list from the records, that were read from the BAM file.
+     * The records are appended at once and sorted only if they are not
+     * sorted yet, so loading the sorted records takes linear time.
+     *
+     * @param records Records, the repeated ones are skipped.
+     */
+    public SAMRecordList(Collection<AlignedRead> records) {
+        super(records.size());
+        addAll(records);
+    }
+
+    /**
+     * Overridden method for adding a SAMRecord into sorted ArrayList by using binary search.
+     * The records, that come in the sorted order, are appended without any shifting.
      *
      * @param s SAMRecord, which we need to add
-     * @return true if all is OK
+     * @return true if all is OK, false if this record is already in the list
      */
     @Override
-    public boolean add(SAMRecord s) {
-        // if this SAMRecord is the first then simply add it
-        if (super.isEmpty()) {
-            super.add(s);
-            return true;
-        }
-        // if collection is not empty , then add SAMRecord by using standard binary search algorithm
-        else {
+    public boolean add(AlignedRead s) {
+        // index after all the records, that are not greater than this one
+        int index = super.size();
+        if (index > 0 && SAMRecordComparator(super.get(index - 1), s) > 0) {
             int firstIndex = 0;
-            int lastIndex = super.size() - 1;
-            while (firstIndex <= lastIndex) {
-                int middleIndex = (firstIndex + lastIndex) / 2;
-                if (SAMRecordComparator(s, super.get(middleIndex)) == 0) {
-                    if (super.get(middleIndex).equals(s)) {
-                        return false;
-                    }
-                    super.add(middleIndex, s);
-                    return true;
-                } else if (lastIndex == firstIndex) {
-                    if (SAMRecordComparator(s, super.get(middleIndex)) > 0 && lastIndex == super.size() - 1) {
-                        super.add(s);
-                        return true;
-                    } else if (SAMRecordComparator(s, super.get(middleIndex)) > 0) {
-                        super.add(middleIndex + 1, s);
-                        return true;
-                    } else {
-                        super.add(middleIndex, s);
-                        return true;
-                    }
-                } else if (s.getStart() > super.get(middleIndex).getStart() || s.getEnd() > super.get(middleIndex).getEnd()) {
+            int lastIndex = index - 1;
+            while (firstIndex < lastIndex) {
+                int middleIndex = (firstIndex + lastIndex) >>> 1;
+                if (SAMRecordComparator(super.get(middleIndex), s) > 0) {
+                    lastIndex = middleIndex;
+                } else {
                     firstIndex = middleIndex + 1;
-                } else if (s.getStart() < super.get(middleIndex).getStart() || s.getEnd() < super.get(middleIndex).getEnd()) {
-                    lastIndex = middleIndex - 1;
                 }
             }
-
+            index = firstIndex;
+        }
+        // the same record has the same position as the records just before the index
+        for (int i = index - 1; i >= 0 && SAMRecordComparator(super.get(i), s) == 0; i--) {
+            if (super.get(i) == s) {
+                return false;
+            }
         }
-        return false;
+        super.add(index, s);
+        return true;
     }
 
     /**
-     * Adds all the elements from the other collection.
+     * Adds all the elements from the other collection, skipping the ones that are
+     * already in this list. Elements are appended and the list is sorted once, which
+     * takes linear time, if both this list and the collection are sorted.
      *
      * @param collection Another collection to getSAMRecordList the elements from.
-     * @return True, if all elements were added, false otherwise.
+     * @return True, if any element was added, false otherwise.
      */
     @Override
-    public boolean addAll(Collection<? extends SAMRecord> collection) {
-        for (SAMRecord record : collection) {
-            if (!add(record)) {
-                return false;
+    public boolean addAll(Collection<? extends AlignedRead> collection) {
+        Set<AlignedRead> present = Collections.newSetFromMap(new IdentityHashMap<>(super.size() + collection.size()));
+        present.addAll(this);
+        boolean sorted = true;
+        int size = super.size();
+        for (AlignedRead record : collection) {
+            if (present.add(record)) {
+                if (!super.isEmpty() && SAMRecordComparator(super.get(super.size() - 1), record) > 0) {
+                    sorted = false;
+                }
+                super.add(record);
             }
         }
-        return true;
+        if (!sorted) {
+            super.sort(SAMRecordList::SAMRecordComparator);
+        }
+        return super.size() != size;
     }
 
     /**
-     * Method, which returns a List of SAMRecords which contains the position
+     * Method, which returns the SAMRecords which contain the position
      *
      * @param position position, which SAMRecords should contain
-     * @return List of SAMRecords which contains the position
+     * @return View of the SAMRecords which contain the position, in the order of the list
      */
-    public List<SAMRecord> getSAMRecordList(long position) {
-        List<SAMRecord> samRecords = new ArrayList<>();
-        // minIndex - minimal index of SAMRecord in the super ArrayList which contain the position
-        int minIndex = 0;
-        int firstIndex = 0;
-        int lastIndex = super.size() - 1;
-        // find it by using binary search
-        while (firstIndex <= lastIndex) {
-            int middleIndex = (firstIndex + lastIndex) / 2;
-            if (position < super.get(middleIndex).getStart()) {
-                lastIndex = middleIndex - 1;
-            } else if (position > super.get(middleIndex).getEnd()) {
+    public Iterable<AlignedRead> getSAMRecordList(long position) {
+        return getSAMRecordList(position, position);
+    }
+
+    /**
+     * Method, which returns the SAMRecords which overlap the range of the positions. The records
+     * are not copied, the view iterates over the records starting before the end of the range,
+     * whose maximal end position is after the start of the range, and skips the other ones.
+     * The view must not be used after the list is modified.
+     *
+     * @param start first position of the range
+     * @param end   last position of the range
+     * @return View of the SAMRecords which overlap the range, in the order of the list
+     */
+    public Iterable<AlignedRead> getSAMRecordList(long start, long end) {
+        int from = getFirstOverlappingIndex(start);
+        // first record, that starts after the end of the range
+        int firstIndex = from;
+        int lastIndex = super.size();
+        while (firstIndex < lastIndex) {
+            int middleIndex = (firstIndex + lastIndex) >>> 1;
+            if (super.get(middleIndex).getStart() <= end) {
                 firstIndex = middleIndex + 1;
-            } else if (inRange(position, super.get(middleIndex))) {
-                if (middleIndex > 0 && inRange(position, super.get(middleIndex - 1))) {
-                    lastIndex = middleIndex - 1;
-                } else if ((middleIndex > 0 && !inRange(position, super.get(middleIndex - 1))) || (middleIndex == 0)) {
-                    minIndex = middleIndex;
-                    break;
-                }
+            } else {
+                lastIndex = middleIndex;
             }
         }
-        // maxIndex - maximal index of SAMRecord in the super ArrayList which contain the position
-        int maxIndex = super.size() - 1;
-        firstIndex = 0;
-        lastIndex = super.size() - 1;
-        // find it by using binary search
-        while (firstIndex <= lastIndex) {
-            int middleIndex = (firstIndex + lastIndex) / 2;
-            if (position < super.get(middleIndex).getStart()) {
-                lastIndex = middleIndex - 1;
-            } else if (position > super.get(middleIndex).getEnd()) {
-                firstIndex = middleIndex + 1;
-            } else if (inRange(position, super.get(middleIndex))) {
-                if (middleIndex < super.size() - 1 && inRange(position, super.get(middleIndex + 1))) {
-                    firstIndex = middleIndex + 1;
-                } else if ((middleIndex < super.size() - 1 && !inRange(position, super.get(middleIndex + 1))) || (middleIndex == super.size() - 1)) {
-                    maxIndex = middleIndex;
-                    break;
+        int to = firstIndex;
+        return () -> new Iterator<AlignedRead>() {
+
+            /**
+             * Index of the next overlapping record.
+             */
+            private int next = skip(from);
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public AlignedRead next() {
+                if (next >= to) {
+                    throw new NoSuchElementException();
                 }
+                AlignedRead record = get(next);
+                next = skip(next + 1);
+                return record;
+            }
+
+            /**
+             * Skips the records, that end before the start of the range.
+             *
+             * @param index Index of the record to start from.
+             * @return Index of the next overlapping record, or the end of the view.
+             */
+            private int skip(int index) {
+                while (index < to && get(index).getEnd() < start) {
+                    index++;
+                }
+                return index;
+            }
+        };
+    }
+
+    /**
+     * Finds the first record, that may overlap the position. All the records
+     * before it end before the position, as their maximal end is before it.
+     *
+     * @param position Position on the reference.
+     * @return Index of the first record, whose maximal end is not before the position.
+     */
+    int getFirstOverlappingIndex(long position) {
+        int[] index = getMaxEnds();
+        int firstIndex = 0;
+        int lastIndex = index.length;
+        while (firstIndex < lastIndex) {
+            int middleIndex = (firstIndex + lastIndex) >>> 1;
+            if (index[middleIndex] < position) {
+                firstIndex = middleIndex + 1;
+            } else {
+                lastIndex = middleIndex;
             }
         }
-        for (int i = minIndex; i <= maxIndex; i++) {
-            samRecords.add(super.get(i));
-        }
-        return Collections.synchronizedList(samRecords);
+        return firstIndex;
     }
 
     /**
-     * method which check that position there is in SAMRecord
+     * Returns the index of the maximal end positions, rebuilding it if the list was modified.
      *
-     * @param position  position, which we want to check
-     * @param samRecord SAMRecord in which we check position
-     * @return true if the position is in the SAMRecord
+     * @return Maximal end position of the records from the first one to each one.
      */
-    private static boolean inRange(long position, SAMRecord samRecord) {
-        return position >= samRecord.getStart() && position <= samRecord.getEnd();
+    private synchronized int[] getMaxEnds() {
+        if (indexedModCount != modCount) {
+            int[] index = new int[super.size()];
+            int maxEnd = Integer.MIN_VALUE;
+            for (int i = 0; i < index.length; i++) {
+                maxEnd = Math.max(maxEnd, super.get(i).getEnd());
+                index[i] = maxEnd;
+            }
+            maxEnds = index;
+            indexedModCount = modCount;
+        }
+        return maxEnds;
     }
 
     /**
@@ -173,7 +253,7 @@ public class SAMRecordList extends ArrayList<SAMRecord> {
      * @param scd the second SAMRecord
      * @return sab of end positions if SAMRecords have similar start positions else return sab of start positions
      */
-    private static int SAMRecordComparator(SAMRecord fst, SAMRecord scd) {
+    private static int SAMRecordComparator(AlignedRead fst, AlignedRead scd) {
         if ((fst.getStart() - scd.getStart()) == 0) {
             return fst.getEnd() - scd.getEnd();
         } else {
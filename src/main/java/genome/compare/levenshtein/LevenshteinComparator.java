@@ -27,22 +27,25 @@ package genome.compare.levenshtein;
 import exception.GenomeException;
 import genome.assembly.GenomeRegion;
 import genome.compare.common.GenomeComparator;
-import util.Pair;
-
-import java.util.Arrays;
 
 /**
  * Implements algorithm for Levenshtein distance calculation
- * to compare genomes.
+ * to compare genomes. The distance is calculated by the bit-parallel
+ * {@link MyersDistance} over the packed nucleotides of the regions.
  *
  * @author Sergey Khvatov
  */
 public class LevenshteinComparator extends GenomeComparator {
 
     /**
-     * Unknown nucleotide symbol.
+     * Distance calculator of each thread, whose arrays are reused for all the regions.
+     */
+    private static final ThreadLocal<MyersDistance> DISTANCES = ThreadLocal.withInitial(MyersDistance::new);
+
+    /**
+     * Maximal percentage of the differences, up to which the distance is calculated exactly.
      */
-    private static final char UNKNOWN_NUCLEOTIDE = '*';
+    private double maxDifference;
 
     /**
      * Default class constructor from genomes of two people.
@@ -51,7 +54,21 @@ public class LevenshteinComparator extends GenomeComparator {
      * @param second Genome of the second person.
      */
     public LevenshteinComparator(GenomeRegion first, GenomeRegion second) {
+        this(first, second, 100d);
+    }
+
+    /**
+     * Class constructor from genomes of two people and the cap of the differences.
+     * Regions, that differ more, are compared only until the cap is exceeded.
+     *
+     * @param first         Genome of the first person.
+     * @param second        Genome of the second person.
+     * @param maxDifference Maximal percentage of the length of the longer region,
+     *                      up to which the distance is calculated exactly.
+     */
+    public LevenshteinComparator(GenomeRegion first, GenomeRegion second, double maxDifference) {
         super(first, second);
+        this.maxDifference = maxDifference;
     }
 
     /**
@@ -59,34 +76,17 @@ public class LevenshteinComparator extends GenomeComparator {
      * for the LevenshteinDistance() method.
      *
      * @return The result of the comparison using Levenshtein distance. Compares two nucleotides,
-     * if they are both known, otherwise deletes it from the nucleotide sequence.
+     * if they are both known, otherwise deletes it from the nucleotide sequence. If the distance
+     * exceeds the cap, then the cap increased by 1 is returned as the difference.
      * @throws GenomeException if sizes of the regions are not equal or if exception
      *                         is thrown in {@link LevenshteinComparisonResult}.
      */
     public LevenshteinComparisonResult compare() {
-        // normalize the input nucleotide sequences
-        Pair<String, String> temp = getNormalizedAlignments(first.getNucleotideSequence(), second.getNucleotideSequence());
-        // save new genome sequences
-        String f = temp.getKey(), s = temp.getValue();
-
-        // table for the further usage
-        int[] table = new int[s.length() + 1];
-        // fill the table
-        for (int l = 0; l < s.length() + 1; l++) {
-            table[l] = l;
-        }
-
-        int[] current = new int[s.length() + 1];
-        for (int l = 1; l < f.length() + 1; l++) {
-            current[0] = l;
-            for (int k = 1; k < s.length() + 1; k++) {
-                // calculate the minimum between
-                // table[l][k-1] + 1, table[l-1][k] + 1
-                // and table[l - 1][k - 1] + (f.charAt(l) == s.charAt(k)
-                current[k] = Math.min(Math.min(current[k - 1] + 1, table[k] + 1), Math.min(table[k] + 1, table[k - 1] + ((f.charAt(l - 1) == s.charAt(k - 1)) ? 0 : 1)));
-            }
-            table = Arrays.copyOf(current, current.length);
-        }
+        // unknown nucleotides are deleted from both sequences
+        MyersDistance distance = DISTANCES.get();
+        // the normalized sequence may be longer than the region, so the distance is not capped by default
+        int maxDistance = maxDifference >= 100d ? Integer.MAX_VALUE : (int) (maxDifference / 100d * Math.max(first.getNucleotideLength(), second.getNucleotideLength()));
+        int difference = distance.distance(first, second, maxDistance);
         /*
          return difference between these two regions
          without considering unknown nucleotides.
@@ -94,55 +94,6 @@ public class LevenshteinComparator extends GenomeComparator {
         // also, after validation we consider that the
         // start positions and the names of chromosomes and genes in these two regions
         // are the same.
-        return new LevenshteinComparisonResult(first.getChromName(), first.getGene(), current[s.length()], Math.max(f.length(), s.length()));
-    }
-
-    /**
-     * Check if nucleotide wasn't processed by sequencer.
-     *
-     * @param nucleotide Nucleotide to check
-     * @return True, if nucleotide wasn't processed by sequencer, false otherwise.
-     */
-    private static boolean isUnknownNucleotide(char nucleotide) {
-        return nucleotide == UNKNOWN_NUCLEOTIDE;
-    }
-
-    /**
-     * Deletes all the unread nucleotides from the nucleotide sequences.
-     *
-     * @param first  First nucleotide sequence.
-     * @param second Second nucleotide sequence.
-     * @return Pair of two strings, that are created by deleting nucleotides
-     * from both nucleotide sequence if at least one of them is UNKNOWN_NUCLEOTIDE.
-     */
-    private static Pair<String, String> getNormalizedAlignments(String first, String second) {
-        // delete unknown nucleotides from both genome strings
-        StringBuilder firstGenome = new StringBuilder();
-        StringBuilder secondGenome = new StringBuilder();
-        for (int i = 0; i < Math.min(first.length(), second.length()); i++) {
-            // add nucleotide to the result sequence if
-            // both nucleotides were correctly processed by the
-            // sequencer
-            if (!isUnknownNucleotide(first.charAt(i)) && !isUnknownNucleotide(second.charAt(i))) {
-                firstGenome.append(first.charAt(i));
-                secondGenome.append(second.charAt(i));
-            }
-        }
-
-        // for the longest sequence check the ending
-        if (firstGenome.length() < secondGenome.length()) {
-            for (int i = first.length(); i < second.length(); i++) {
-                if (!isUnknownNucleotide(second.charAt(i))) {
-                    secondGenome.append(i);
-                }
-            }
-        } else {
-            for (int i = second.length(); i < first.length(); i++) {
-                if (!isUnknownNucleotide(first.charAt(i))) {
-                    firstGenome.append(i);
-                }
-            }
-        }
-        return new Pair<>(firstGenome.toString(), secondGenome.toString());
+        return new LevenshteinComparisonResult(first.getChromName(), first.getGene(), difference, Math.max(distance.getFirstLength(), distance.getSecondLength()));
     }
 }
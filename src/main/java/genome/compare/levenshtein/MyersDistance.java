@@ -0,0 +1,428 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2019-present Polina Bevad, Sergey Hvatov, Vladislav Marchenko
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package genome.compare.levenshtein;
+
+import genome.assembly.GenomeRegion;
+
+import java.util.Arrays;
+
+/**
+ * Calculates the Levenshtein distance with the bit-parallel algorithm of Myers in the form
+ * of Hyyro: the vertical differences of 64 cells of the column are stored in one word, and
+ * the longer sequences are split into the blocks of words, that pass the horizontal differences
+ * of their last rows to each other. The sequences of the regions are taken from their packed
+ * words, so the distance is calculated without creating any strings. Similar sequences are
+ * compared by the banded algorithm of Ukkonen, that calculates only the blocks near
+ * the main diagonal, and the calculation may be stopped as soon as the distance exceeds the cap.
+ * The arrays are reused by the following calls, so each thread should have its own object.
+ *
+ * @author Sergey Khvatov
+ */
+public class MyersDistance {
+
+    /**
+     * Number of the cells of the column in one block.
+     */
+    private static final int WORD_SIZE = Long.SIZE;
+
+    /**
+     * Number of the diagonals on each side of the main one, that are calculated first.
+     */
+    private static final int INITIAL_BAND = 8;
+
+    /**
+     * Band is used only, if the second sequence is longer than the cap multiplied by this factor,
+     * as the wider bands calculate almost as many blocks, as the whole matrix, and take more time.
+     */
+    private static final int BAND_FACTOR = 16;
+
+    /**
+     * Number of the different symbols of the sequences: nucleotides are followed by the decimal
+     * digits, that the positions of the known nucleotides after the end of the shorter region
+     * are written with, so that the distance is the same as for the strings compared before.
+     */
+    public static final int ALPHABET_SIZE = GenomeRegion.NUCLEOTIDES.length() + 10;
+
+    /**
+     * Symbols of the normalized first sequence.
+     */
+    private int[] firstSymbols = new int[0];
+
+    /**
+     * Length of the normalized first sequence.
+     */
+    private int firstLength;
+
+    /**
+     * Symbols of the normalized second sequence.
+     */
+    private int[] secondSymbols = new int[0];
+
+    /**
+     * Length of the normalized second sequence.
+     */
+    private int secondLength;
+
+    /**
+     * Match vectors of each symbol of the alphabet and each block.
+     */
+    private long[] peq = new long[0];
+
+    /**
+     * Positive vertical differences of each block.
+     */
+    private long[] pv = new long[0];
+
+    /**
+     * Negative vertical differences of each block.
+     */
+    private long[] mv = new long[0];
+
+    /**
+     * Values of the last rows of the blocks in the current column.
+     */
+    private int[] scores = new int[0];
+
+    /**
+     * Calculates the distance between two regions, taking only the positions, where
+     * the nucleotides of both regions are known. The position of each known nucleotide of the
+     * first region after the end of the second one is added to it as the decimal number.
+     *
+     * @param first  First region.
+     * @param second Second region.
+     * @return Levenshtein distance between the normalized sequences.
+     */
+    public int distance(GenomeRegion first, GenomeRegion second) {
+        return distance(first, second, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Calculates the distance between two regions like {@link #distance(GenomeRegion, GenomeRegion)},
+     * but stops as soon as it's known, that the distance exceeds the cap.
+     *
+     * @param first       First region.
+     * @param second      Second region.
+     * @param maxDistance Cap of the distance.
+     * @return Levenshtein distance between the normalized sequences, or maxDistance + 1 if it's greater than the cap.
+     */
+    public int distance(GenomeRegion first, GenomeRegion second, int maxDistance) {
+        normalize(first, second);
+        return distance(firstSymbols, firstLength, secondSymbols, secondLength, maxDistance);
+    }
+
+    /**
+     * Returns the length of the normalized first sequence of the last compared regions.
+     *
+     * @return Length of the sequence.
+     */
+    public int getFirstLength() {
+        return firstLength;
+    }
+
+    /**
+     * Returns the length of the normalized second sequence of the last compared regions.
+     *
+     * @return Length of the sequence.
+     */
+    public int getSecondLength() {
+        return secondLength;
+    }
+
+    /**
+     * Calculates the Levenshtein distance between two sequences of the symbols.
+     *
+     * @param text          Symbols of the first sequence in the range [0, {@link #ALPHABET_SIZE}).
+     * @param textLength    Length of the first sequence.
+     * @param pattern       Symbols of the second sequence in the range [0, {@link #ALPHABET_SIZE}).
+     * @param patternLength Length of the second sequence.
+     * @return Levenshtein distance between the sequences.
+     */
+    public int distance(int[] text, int textLength, int[] pattern, int patternLength) {
+        return distance(text, textLength, pattern, patternLength, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Calculates the Levenshtein distance between two sequences of the symbols, if it doesn't
+     * exceed the cap. If the cap is small compared to the length of the second sequence, then only
+     * the blocks, that intersect the band of the diagonals around the main one, are calculated,
+     * and the band is doubled, until the distance is found inside of it or the band reaches the cap.
+     *
+     * @param text          Symbols of the first sequence in the range [0, {@link #ALPHABET_SIZE}).
+     * @param textLength    Length of the first sequence.
+     * @param pattern       Symbols of the second sequence in the range [0, {@link #ALPHABET_SIZE}).
+     * @param patternLength Length of the second sequence.
+     * @param maxDistance   Cap of the distance.
+     * @return Levenshtein distance between the sequences, or maxDistance + 1 if it's greater than the cap.
+     */
+    public int distance(int[] text, int textLength, int[] pattern, int patternLength, int maxDistance) {
+        // distance never exceeds the length of the longer sequence
+        maxDistance = Math.min(maxDistance, Math.max(textLength, patternLength));
+        if (Math.abs(textLength - patternLength) > maxDistance) {
+            return maxDistance + 1;
+        }
+        if (patternLength == 0 || textLength == 0) {
+            return Math.max(textLength, patternLength);
+        }
+        int blocks = (patternLength + WORD_SIZE - 1) / WORD_SIZE;
+        if (pv.length < blocks) {
+            peq = new long[ALPHABET_SIZE * blocks];
+            pv = new long[blocks];
+            mv = new long[blocks];
+            scores = new int[blocks];
+        }
+        Arrays.fill(peq, 0, ALPHABET_SIZE * blocks, 0L);
+        for (int i = 0; i < patternLength; i++) {
+            peq[pattern[i] * blocks + i / WORD_SIZE] |= 1L << (i % WORD_SIZE);
+        }
+
+        // the band is used only, when even the band as wide as the cap covers the small part
+        // of the matrix, so the distance is always found by it or cut off at the cap
+        if ((long) BAND_FACTOR * maxDistance < patternLength) {
+            // the band is doubled, until the distance is found inside of it or it reaches the cap
+            for (int band = Math.max(INITIAL_BAND, Math.abs(textLength - patternLength)); ; band *= 2) {
+                int limit = Math.min(band, maxDistance);
+                int distance = bandedDistance(text, textLength, patternLength, blocks, limit);
+                // the distance inside of the band is exact, if it doesn't exceed the band
+                if (distance <= limit) {
+                    return distance;
+                }
+                if (limit == maxDistance) {
+                    return maxDistance + 1;
+                }
+            }
+        }
+        return fullDistance(text, textLength, patternLength, blocks, maxDistance);
+    }
+
+    /**
+     * Calculates the Levenshtein distance by the bit-parallel algorithm over the whole matrix.
+     * The calculation is stopped, as soon as the distance can't be within the cap
+     * even if the rest of the first sequence matches.
+     *
+     * @param text          Symbols of the first sequence.
+     * @param textLength    Length of the first sequence.
+     * @param patternLength Length of the second sequence, whose match vectors are prepared.
+     * @param blocks        Number of the blocks of the second sequence.
+     * @param maxDistance   Cap of the distance.
+     * @return Levenshtein distance between the sequences, or maxDistance + 1 if it's greater than the cap.
+     */
+    private int fullDistance(int[] text, int textLength, int patternLength, int blocks, int maxDistance) {
+        // the first column is 0, 1, ..., patternLength
+        Arrays.fill(pv, 0, blocks, -1L);
+        Arrays.fill(mv, 0, blocks, 0L);
+        int lastBit = (patternLength - 1) % WORD_SIZE;
+        int score = patternLength;
+
+        for (int j = 0; j < textLength; j++) {
+            int symbol = text[j] * blocks;
+            // the first row is 0, 1, ..., textLength
+            int hin = 1;
+            for (int b = 0; b < blocks; b++) {
+                long eq = peq[symbol + b];
+                long p = pv[b];
+                long m = mv[b];
+                long xv = eq | m;
+                if (hin < 0) {
+                    eq |= 1L;
+                }
+                long xh = (((eq & p) + p) ^ p) | eq;
+                long ph = m | ~(xh | p);
+                long mh = p & xh;
+                // horizontal difference of the last row of the block
+                int bit = b == blocks - 1 ? lastBit : WORD_SIZE - 1;
+                int hout = (int) (ph >>> bit & 1L) - (int) (mh >>> bit & 1L);
+                ph <<= 1;
+                mh <<= 1;
+                if (hin < 0) {
+                    mh |= 1L;
+                } else if (hin > 0) {
+                    ph |= 1L;
+                }
+                pv[b] = mh | ~(xv | ph);
+                mv[b] = ph & xv;
+                hin = hout;
+            }
+            score += hin;
+            // each of the remaining columns decreases the distance at most by 1
+            if (score - (textLength - j - 1) > maxDistance) {
+                return maxDistance + 1;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Calculates the Levenshtein distance by the bit-parallel algorithm over the blocks, that intersect
+     * the band of the diagonals. The blocks below the band are started, as if each their cell was
+     * greater than the one above it by 1, and the row above the first calculated block is increased
+     * by 1 in each column, so the calculated cells are never less than the exact ones, and don't exceed
+     * the distances over the paths inside of the band. The calculation is stopped, as soon as the
+     * distance can't be within the band even if the rest of the first sequence matches.
+     *
+     * @param text          Symbols of the first sequence.
+     * @param textLength    Length of the first sequence.
+     * @param patternLength Length of the second sequence, whose match vectors are prepared.
+     * @param blocks        Number of the blocks of the second sequence.
+     * @param band          Number of the diagonals on each side of the main one.
+     * @return Distance, that is exact if it doesn't exceed the band, or band + 1 if it exceeds the band.
+     */
+    private int bandedDistance(int[] text, int textLength, int patternLength, int blocks, int band) {
+        // the band of one diagonal doesn't reach the next block, before the previous one is left
+        int width = Math.max(band, 1);
+        int lastBit = (patternLength - 1) % WORD_SIZE;
+        // the first column is 0, 1, ..., patternLength
+        Arrays.fill(pv, 0, blocks, -1L);
+        Arrays.fill(mv, 0, blocks, 0L);
+        int calculatedBlocks = 1;
+        scores[0] = Math.min(WORD_SIZE, patternLength);
+        // value of the row above the first calculated block
+        int boundary = 0;
+        int previousFirstBlock = 0;
+
+        for (int j = 1; j <= textLength; j++) {
+            int symbol = text[j - 1] * blocks;
+            // blocks with the rows [j - width, j + width]
+            int firstBlock = j - width - 1 > 0 ? (j - width - 1) / WORD_SIZE : 0;
+            int lastBlock = Math.min(blocks - 1, (j + width - 1) / WORD_SIZE);
+            // the first row, or the row above the band, is increased by 1
+            boundary = firstBlock > previousFirstBlock ? scores[firstBlock - 1] + 1 : boundary + 1;
+            previousFirstBlock = firstBlock;
+            int hin = 1;
+            for (int b = firstBlock; b <= lastBlock; b++) {
+                long eq = peq[symbol + b];
+                long p = pv[b];
+                long m = mv[b];
+                long xv = eq | m;
+                if (hin < 0) {
+                    eq |= 1L;
+                }
+                long xh = (((eq & p) + p) ^ p) | eq;
+                long ph = m | ~(xh | p);
+                long mh = p & xh;
+                // horizontal difference of the last row of the block
+                int bit = b == blocks - 1 ? lastBit : WORD_SIZE - 1;
+                int hout = (int) (ph >>> bit & 1L) - (int) (mh >>> bit & 1L);
+                ph <<= 1;
+                mh <<= 1;
+                if (hin < 0) {
+                    mh |= 1L;
+                } else if (hin > 0) {
+                    ph |= 1L;
+                }
+                pv[b] = mh | ~(xv | ph);
+                mv[b] = ph & xv;
+                if (b < calculatedBlocks) {
+                    scores[b] += hout;
+                } else {
+                    // the last row of the block in the previous column was greater than the last row of the block above
+                    scores[b] = scores[b - 1] - hin + Math.min(WORD_SIZE, patternLength - b * WORD_SIZE) + hout;
+                }
+                hin = hout;
+            }
+            calculatedBlocks = Math.max(calculatedBlocks, lastBlock + 1);
+            // each of the remaining columns decreases the distance at most by 1
+            if (lastBlock == blocks - 1 && scores[lastBlock] - (textLength - j) > band) {
+                return band + 1;
+            }
+            // each path to the last cell crosses the column, and the cells never decrease along the path
+            if (j % WORD_SIZE == 0) {
+                int columnMin = boundary;
+                for (int b = firstBlock; b <= lastBlock && columnMin > band; b++) {
+                    columnMin = Math.min(columnMin, getMinimum(b, b == blocks - 1 ? lastBit : WORD_SIZE - 1));
+                }
+                if (columnMin > band) {
+                    return band + 1;
+                }
+            }
+        }
+        return scores[blocks - 1];
+    }
+
+    /**
+     * Finds the minimal cell of the block in the current column.
+     *
+     * @param block   Index of the block.
+     * @param lastBit Bit of the last row of the block.
+     * @return Minimal cell of the block.
+     */
+    private int getMinimum(int block, int lastBit) {
+        int value = scores[block];
+        int minimum = value;
+        for (int bit = lastBit; bit > 0; bit--) {
+            value -= (int) (pv[block] >>> bit & 1L) - (int) (mv[block] >>> bit & 1L);
+            minimum = Math.min(minimum, value);
+        }
+        return minimum;
+    }
+
+    /**
+     * Takes the nucleotides from the positions, where both of them are known,
+     * and the positions of the known nucleotides of the first region after the end of the second one.
+     *
+     * @param first  First region.
+     * @param second Second region.
+     */
+    private void normalize(GenomeRegion first, GenomeRegion second) {
+        int common = Math.min(first.getNucleotideLength(), second.getNucleotideLength());
+        firstSymbols = ensureCapacity(firstSymbols, common);
+        secondSymbols = ensureCapacity(secondSymbols, common);
+        firstLength = 0;
+        secondLength = 0;
+        for (int w = 0; w * GenomeRegion.NUCLEOTIDES_PER_WORD < common; w++) {
+            int known = ~(first.getUnknownMask(w) | second.getUnknownMask(w));
+            int valid = common - w * GenomeRegion.NUCLEOTIDES_PER_WORD;
+            if (valid < GenomeRegion.NUCLEOTIDES_PER_WORD) {
+                known &= (1 << valid) - 1;
+            }
+            long firstWord = first.getPackedWord(w), secondWord = second.getPackedWord(w);
+            while (known != 0) {
+                int bit = Integer.numberOfTrailingZeros(known);
+                known &= known - 1;
+                firstSymbols[firstLength++] = (int) (firstWord >>> (2 * bit)) & 3;
+                secondSymbols[secondLength++] = (int) (secondWord >>> (2 * bit)) & 3;
+            }
+        }
+        for (int i = second.getNucleotideLength(); i < first.getNucleotideLength(); i++) {
+            if (!first.isUnknown(i)) {
+                String position = Integer.toString(i);
+                firstSymbols = ensureCapacity(firstSymbols, firstLength + position.length());
+                for (int k = 0; k < position.length(); k++) {
+                    firstSymbols[firstLength++] = GenomeRegion.NUCLEOTIDES.length() + position.charAt(k) - '0';
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the array of at least the given length with the same first elements.
+     *
+     * @param symbols  Array of the symbols.
+     * @param capacity Minimal length of the array.
+     * @return The same array, or the extended copy.
+     */
+    private static int[] ensureCapacity(int[] symbols, int capacity) {
+        return symbols.length >= capacity ? symbols : Arrays.copyOf(symbols, Math.max(capacity, 2 * symbols.length));
+    }
+}
@@ -26,6 +26,7 @@ package util;
 
 import exception.GenomeException;
 import exception.GenomeFileException;
+import executors.ComparisonOptions;
 import executors.GenomeComparatorExecutor;
 import genome.compare.common.ComparatorType;
 import genome.compare.common.ComparisonResultAnalyzer;
@@ -54,7 +55,26 @@ public class TrioComparator {
      * @throws GenomeException     if some errors occurred through the work of code
      */
     public static String compareTwoGenomes(String BAMFileName1, String BAMFileName2, String BEDFileName, ComparatorType type, int threadsNum, boolean intermediateOutput, String path) {
-        GenomeComparatorExecutor comparator = new GenomeComparatorExecutor(BAMFileName1, BAMFileName2, BEDFileName, type);
+        return compareTwoGenomes(BAMFileName1, BAMFileName2, BEDFileName, type, threadsNum, intermediateOutput, path, new ComparisonOptions());
+    }
+
+    /**
+     * Static method, which run a comparing of genomes of two persons.
+     *
+     * @param BAMFileName1       name of the BAM file which contains genome of the 1st person
+     * @param BAMFileName2       name of the BAM file which contains genome of the 2nd person
+     * @param BEDFileName        name of the BED file
+     * @param type               Type of the comparator, that will be used to compare genomes.
+     * @param intermediateOutput if this flag is true , then interim genome comparison results will be displayed,
+     *                           else - only the main chromosome results will be obtained
+     * @param threadsNum         Number of threads that will be used to process exons.
+     * @param options            Options, which define how the genomes are read, assembled and compared.
+     * @return String with results of comparing of two genomes
+     * @throws GenomeFileException if some errors of input files occurred
+     * @throws GenomeException     if some errors occurred through the work of code
+     */
+    public static String compareTwoGenomes(String BAMFileName1, String BAMFileName2, String BEDFileName, ComparatorType type, int threadsNum, boolean intermediateOutput, String path, ComparisonOptions options) {
+        GenomeComparatorExecutor comparator = new GenomeComparatorExecutor(BAMFileName1, BAMFileName2, BEDFileName, type, options);
         ComparisonResultAnalyzer geneComparisonResultAnalyzer = comparator.compareGenomes(threadsNum, intermediateOutput, path);
         return geneComparisonResultAnalyzer.analyze();
     }
@@ -74,12 +94,31 @@ public class TrioComparator {
      * @throws GenomeException if some errors occurred through the work of code
      */
     public static String compareThreeGenomes(String fatherBAMFileName, String motherBAMFileName, String sonBAMFileName, String BEDFileName, ComparatorType type, int threadsNum, boolean intermediateOutput, String path) {
-        GenomeComparatorExecutor comparator1 = new GenomeComparatorExecutor(sonBAMFileName, fatherBAMFileName, BEDFileName, type);
+        return compareThreeGenomes(fatherBAMFileName, motherBAMFileName, sonBAMFileName, BEDFileName, type, threadsNum, intermediateOutput, path, new ComparisonOptions());
+    }
+
+    /**
+     * Static method , which run a comparing of genomes of three persons: son with father and son with mother
+     *
+     * @param fatherBAMFileName  name of the BAM file which contains genome of the father
+     * @param motherBAMFileName  name of the BAM file which contains genome of the mother
+     * @param sonBAMFileName     name of the BAM file which contains genome of the son
+     * @param BEDFileName        name of the BED file
+     * @param type               Type of the comparator, that will be used to compare genomes.
+     * @param threadsNum         Number of threads that will be used to process exons.
+     * @param intermediateOutput if this flag is true , then interim genome comparison results will be displayed,
+     *                           else - only the main chromosome results will be obtained
+     * @param options            Options, which define how the genomes are read, assembled and compared.
+     * @return String with results of genomes comparing of three persons: son with father and son with mother
+     * @throws GenomeException if some errors occurred through the work of code
+     */
+    public static String compareThreeGenomes(String fatherBAMFileName, String motherBAMFileName, String sonBAMFileName, String BEDFileName, ComparatorType type, int threadsNum, boolean intermediateOutput, String path, ComparisonOptions options) {
+        GenomeComparatorExecutor comparator1 = new GenomeComparatorExecutor(sonBAMFileName, fatherBAMFileName, BEDFileName, type, options);
         ComparisonResultAnalyzer geneComparisonResultAnalyzer1 = comparator1.compareGenomes(threadsNum, intermediateOutput, path);
         StringBuilder result = new StringBuilder("Comparison of father and son genomes:\n");
         result.append(geneComparisonResultAnalyzer1.analyze());
 
-        GenomeComparatorExecutor comparator2 = new GenomeComparatorExecutor(sonBAMFileName, motherBAMFileName, BEDFileName, type);
+        GenomeComparatorExecutor comparator2 = new GenomeComparatorExecutor(sonBAMFileName, motherBAMFileName, BEDFileName, type, options);
         ComparisonResultAnalyzer geneComparisonResultAnalyzer2 = comparator2.compareGenomes(threadsNum, intermediateOutput, path);
         result.append("\nComparison of mother and son genomes:\n");
         result.append(geneComparisonResultAnalyzer2.analyze());
@@ -3,16 +3,20 @@ package bam;
 import bam.regular.BAMParser;
 import bam.regular.BEDFeature;
 import bam.regular.BEDParser;
+import bam.regular.ReaderOptions;
 import exception.GenomeException;
 import exception.GenomeFileException;
-import htsjdk.samtools.SAMRecord;
+import genome.assembly.AlignedRead;
+import htsjdk.samtools.SAMUtils;
 import org.junit.Before;
 import org.junit.Test;
 import genome.assembly.SAMRecordList;
 
 import java.util.*;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests the {@link BAMParser} class methods.
@@ -40,6 +44,11 @@ public class BAMParserTest {
      */
     private static final String pathToCorrectFile = "src/test/resources/bam/BAMParser/cor.bam";
 
+    /**
+     * Path to the BAM file with the deep coverage.
+     */
+    private static final String pathToDeepFile = "src/test/resources/genome/compare/testDadMT.bam";
+
     /**
      * Path to directory.
      */
@@ -111,8 +120,45 @@ public class BAMParserTest {
         BAMParser parser = new BAMParser(pathToCorrectFile);
         SAMRecordList samRecords = parser.parse(exons.get(geneName2).get(0));
         int i = 0;
-        for (SAMRecord samRecord: samRecords) {
-            assertEquals(samRecord.getSAMString(), checkArray[i++]);
+        for (AlignedRead read: samRecords) {
+            String[] fields = checkArray[i++].split("\t");
+            assertEquals(Integer.parseInt(fields[3]), read.getStart());
+            assertEquals(fields[9], new String(read.getBases()));
+            assertArrayEquals(SAMUtils.fastqToPhred(fields[10]), read.getBaseQualities());
+        }
+    }
+
+    @Test
+    public void ParsingWithLimitedDepth() throws Exception {
+        BEDFeature feature = new BEDFeature("MT", 1000, 3000, "gene");
+        ReaderOptions options = new ReaderOptions();
+        options.maxDepth = 20;
+        SAMRecordList all = new BAMParser(pathToDeepFile).parse(feature);
+        SAMRecordList limited = new BAMParser(pathToDeepFile, options).parse(feature);
+        assertTrue(limited.size() < all.size());
+
+        // no position is covered by more reads, than the limit
+        for (int position = feature.getStartPos(); position <= feature.getEndPos(); position++) {
+            int depth = 0;
+            for (AlignedRead read : limited) {
+                if (read.getStart() <= position && read.getEnd() >= position) {
+                    depth++;
+                }
+            }
+            assertTrue(depth <= options.maxDepth);
+        }
+
+        // downsampling is deterministic and keeps only the reads from the file
+        SAMRecordList again = new BAMParser(pathToDeepFile, options).parse(feature);
+        assertEquals(limited.size(), again.size());
+        Set<String> reads = new HashSet<>();
+        for (AlignedRead read : all) {
+            reads.add(read.getStart() + new String(read.getBases()));
+        }
+        for (int i = 0; i < limited.size(); i++) {
+            assertEquals(limited.get(i).getStart(), again.get(i).getStart());
+            assertArrayEquals(limited.get(i).getBases(), again.get(i).getBases());
+            assertTrue(reads.contains(limited.get(i).getStart() + new String(limited.get(i).getBases())));
         }
     }
 }
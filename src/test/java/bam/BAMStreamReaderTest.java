@@ -0,0 +1,47 @@
+package bam;
+
+import bam.regular.BAMStreamReader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests the {@link BAMStreamReader} class.
+ *
+ * @author Sergey Khvatov
+ */
+public class BAMStreamReaderTest {
+
+    /**
+     * Path to correct BAM file.
+     */
+    private static final String PATH_TO_BAM = "src/test/resources/genome/compare/testDadMT.bam";
+
+    @Test
+    public void ParallelDecompressionReadsSameRecords() throws Exception {
+        ExecutorService inflaters = Executors.newFixedThreadPool(3);
+        try (BAMStreamReader expected = new BAMStreamReader(SamReaderFactory.makeDefault().open(new File(PATH_TO_BAM)));
+             BAMStreamReader actual = new BAMStreamReader(new FileInputStream(PATH_TO_BAM), inflaters, 4, ValidationStringency.STRICT, PATH_TO_BAM)) {
+            assertEquals(expected.getFileHeader().getSequenceDictionary().size(), actual.getFileHeader().getSequenceDictionary().size());
+            int records = 0;
+            while (expected.hasNext()) {
+                SAMRecord record = expected.next();
+                assertEquals(record.getSAMString(), actual.next().getSAMString());
+                records++;
+            }
+            assertFalse(actual.hasNext());
+            assertEquals(true, records > 0);
+        } finally {
+            inflaters.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package bam;
+
+import bam.regular.ReaderOptions;
+import bam.regular.SamReaderPool;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.SAMRecord;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the queries of the CRAM files, that are answered from the cache of
+ * the decoded containers found with the CRAI index.
+ *
+ * @author Sergey Khvatov
+ */
+public class CRAMContainerCacheTest {
+
+    /**
+     * Path to the CRAM file with the CRAI index, that has many small containers.
+     */
+    private static final String PATH_TO_CRAM = "src/test/resources/genome/compare/testDadMT.cram";
+
+    /**
+     * Path to the reference, that the CRAM file was compressed against.
+     */
+    private static final String PATH_TO_REFERENCE = "src/test/resources/genome/compare/testMTReference.fa";
+
+    /**
+     * Length of the reference.
+     */
+    private static final int REFERENCE_LENGTH = 4000;
+
+    @Test
+    public void RecordsOfRandomIntervalsAreTheSame() throws Exception {
+        assertSameRecords(16, 42);
+    }
+
+    @Test
+    public void RecordsAreTheSameWhenContainersAreEvicted() throws Exception {
+        // each container evicts the previous one
+        assertSameRecords(1, 17);
+    }
+
+    /**
+     * Checks, that the records of the random intervals queried from the cache of the pool
+     * are the same as the ones queried by the htsjdk reader.
+     *
+     * @param capacity Maximal number of the decoded containers kept in the cache.
+     * @param seed     Seed of the random intervals.
+     * @throws Exception if error occurs while reading the CRAM file.
+     */
+    private static void assertSameRecords(int capacity, long seed) throws Exception {
+        ReaderOptions options = new ReaderOptions();
+        options.referenceFile = new File(PATH_TO_REFERENCE);
+        options.cachedContainers = capacity;
+        SamReaderPool pool = new SamReaderPool(new File(PATH_TO_CRAM), options);
+        SamReader pooled = pool.lease();
+        Random random = new Random(seed);
+        int records = 0;
+        try (SamReader reader = SamReaderFactory.makeDefault().referenceSequence(new File(PATH_TO_REFERENCE)).open(new File(PATH_TO_CRAM))) {
+            int referenceIndex = reader.getFileHeader().getSequenceIndex("MT");
+            for (int i = 0; i < 100; i++) {
+                // one to three intervals, some of them spanning many containers
+                QueryInterval[] intervals = new QueryInterval[1 + random.nextInt(3)];
+                for (int j = 0; j < intervals.length; j++) {
+                    int start = 1 + random.nextInt(REFERENCE_LENGTH);
+                    int end = Math.min(REFERENCE_LENGTH, start + random.nextInt(j == 0 ? 1500 : 200));
+                    intervals[j] = new QueryInterval(referenceIndex, start, end);
+                }
+                intervals = QueryInterval.optimizeIntervals(intervals);
+
+                List<String> expected = new ArrayList<>();
+                try (SAMRecordIterator iter = reader.queryOverlapping(intervals)) {
+                    iter.forEachRemaining(record -> expected.add(record.getSAMString()));
+                }
+                List<String> actual = new ArrayList<>();
+                try (CloseableIterator<SAMRecord> iter = pool.query(pooled, intervals)) {
+                    iter.forEachRemaining(record -> actual.add(record.getSAMString()));
+                }
+                assertEquals(expected, actual);
+                records += expected.size();
+            }
+        } finally {
+            pool.release(pooled);
+            pool.close();
+        }
+        assertTrue(records > 0);
+    }
+}
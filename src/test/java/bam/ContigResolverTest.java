@@ -0,0 +1,43 @@
+package bam;
+
+import bam.regular.ContigResolver;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the {@link ContigResolver} class.
+ *
+ * @author Sergey Khvatov
+ */
+public class ContigResolverTest {
+
+    @Test
+    public void ResolvesNamesWithAndWithoutPrefix() {
+        ContigResolver resolver = new ContigResolver(new SAMSequenceDictionary(Arrays.asList(
+            new SAMSequenceRecord("1", 1000),
+            new SAMSequenceRecord("chrX", 1000),
+            new SAMSequenceRecord("MT", 1000))));
+        assertEquals(0, resolver.getIndex("1"));
+        assertEquals(0, resolver.getIndex("chr1"));
+        assertEquals(1, resolver.getIndex("chrX"));
+        assertEquals(1, resolver.getIndex("X"));
+        assertEquals(2, resolver.getIndex("MT"));
+        assertEquals(2, resolver.getIndex("chrM"));
+        assertEquals(2, resolver.getIndex("M"));
+        assertEquals(-1, resolver.getIndex("chr2"));
+    }
+
+    @Test
+    public void ExactNameIsPreferredToAlias() {
+        ContigResolver resolver = new ContigResolver(new SAMSequenceDictionary(Arrays.asList(
+            new SAMSequenceRecord("chr1", 1000),
+            new SAMSequenceRecord("1", 1000))));
+        assertEquals(0, resolver.getIndex("chr1"));
+        assertEquals(1, resolver.getIndex("1"));
+    }
+}
@@ -0,0 +1,92 @@
+package bam;
+
+import bam.regular.BAMParser;
+import bam.regular.BEDFeature;
+import bam.regular.ReaderOptions;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the filters of the reads defined by the {@link ReaderOptions} class.
+ *
+ * @author Sergey Khvatov
+ */
+public class ReaderOptionsTest {
+
+    /**
+     * Path to correct BAM file with the BAI index.
+     */
+    private static final String PATH_TO_BAM = "src/test/resources/genome/compare/testDadMT.bam";
+
+    @Test
+    public void FilteredReadsAreSkipped() throws Exception {
+        ReaderOptions options = new ReaderOptions();
+        options.minMappingQuality = 20;
+        options.excludedFlags = 0xF00;
+        int unmapped = 0, excluded = 0, lowQuality = 0, kept = 0;
+        try (SamReader reader = SamReaderFactory.makeDefault().open(new File(PATH_TO_BAM))) {
+            for (SAMRecord record : reader) {
+                boolean isExcluded = record.isSecondaryAlignment() || record.getReadFailsVendorQualityCheckFlag()
+                    || record.getDuplicateReadFlag() || record.getSupplementaryAlignmentFlag();
+                if (record.getReadUnmappedFlag()) {
+                    unmapped++;
+                } else if (isExcluded) {
+                    excluded++;
+                } else if (record.getMappingQuality() < 20) {
+                    lowQuality++;
+                } else {
+                    kept++;
+                }
+                boolean expected = !record.getReadUnmappedFlag() && !isExcluded && record.getMappingQuality() >= 20;
+                assertEquals(record.getSAMString(), expected, options.accept(record));
+            }
+        }
+        // the file has the reads of each kind
+        assertTrue(unmapped > 0 && excluded > 0 && lowQuality > 0 && kept > 0);
+    }
+
+    @Test
+    public void UnmappedReadsAreSkippedByDefault() throws Exception {
+        ReaderOptions options = new ReaderOptions();
+        try (SamReader reader = SamReaderFactory.makeDefault().open(new File(PATH_TO_BAM))) {
+            for (SAMRecord record : reader) {
+                assertEquals(!record.getReadUnmappedFlag(), options.accept(record));
+            }
+        }
+    }
+
+    @Test
+    public void ParserSkipsFilteredReads() throws Exception {
+        BEDFeature feature = new BEDFeature("MT", 1500, 3500, "gene1");
+        ReaderOptions options = new ReaderOptions();
+        options.minMappingQuality = 20;
+        options.excludedFlags = 0xF00;
+        int overlapping = 0, kept = 0;
+        try (SamReader reader = SamReaderFactory.makeDefault().open(new File(PATH_TO_BAM));
+             SAMRecordIterator iterator = reader.queryOverlapping("MT", 1500, 3500)) {
+            while (iterator.hasNext()) {
+                SAMRecord record = iterator.next();
+                overlapping++;
+                if (options.accept(record)) {
+                    kept++;
+                }
+            }
+        }
+        assertTrue(kept < overlapping);
+        try (BAMParser parser = new BAMParser(PATH_TO_BAM, options)) {
+            assertEquals(kept, parser.parse(feature).size());
+        }
+        options.minMappingQuality = 61;
+        try (BAMParser parser = new BAMParser(PATH_TO_BAM, options)) {
+            assertEquals(0, parser.parse(feature).size());
+        }
+    }
+}
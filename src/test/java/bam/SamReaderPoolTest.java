@@ -0,0 +1,63 @@
+package bam;
+
+import bam.regular.SamReaderPool;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.util.CloseableIterator;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link SamReaderPool} class.
+ *
+ * @author Sergey Khvatov
+ */
+public class SamReaderPoolTest {
+
+    /**
+     * Path to correct BAM file with the BAI index.
+     */
+    private static final String PATH_TO_BAM = "src/test/resources/genome/compare/testDadMT.bam";
+
+    @Test
+    public void ReleasedReaderIsReused() {
+        SamReaderPool pool = new SamReaderPool(new File(PATH_TO_BAM));
+        SamReader reader = pool.lease();
+        pool.release(reader);
+        assertSame(reader, pool.lease());
+        pool.close();
+    }
+
+    @Test
+    public void LeasedReaderIsNotClosedWithThePool() {
+        SamReaderPool pool = new SamReaderPool(new File(PATH_TO_BAM));
+        SamReader reader = pool.lease();
+        SamReader idle = pool.lease();
+        pool.release(idle);
+        pool.close();
+
+        // reader is still usable by the thread, that has leased it
+        int referenceIndex = reader.getFileHeader().getSequenceIndex("MT");
+        int count = 0;
+        try (CloseableIterator<SAMRecord> iterator = pool.query(reader, new QueryInterval[]{new QueryInterval(referenceIndex, 1, 16569)})) {
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+        }
+        assertTrue(count > 0);
+
+        // neither of the readers is pooled after the pool is closed
+        pool.release(reader);
+        SamReader another = pool.lease();
+        assertNotSame(reader, another);
+        assertNotSame(idle, another);
+        pool.close();
+    }
+}
@@ -0,0 +1,62 @@
+package bam;
+
+import bam.regular.SharedBAMIndex;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link SharedBAMIndex} class.
+ *
+ * @author Sergey Khvatov
+ */
+public class SharedBAMIndexTest {
+
+    /**
+     * Path to correct BAM file with the BAI index.
+     */
+    private static final String PATH_TO_BAM = "src/test/resources/genome/compare/testDadMT.bam";
+
+    @Test
+    public void IndexIsSharedBetweenCalls() throws Exception {
+        SharedBAMIndex index = SharedBAMIndex.get(new File(PATH_TO_BAM));
+        assertNotNull(index);
+        assertSame(index, SharedBAMIndex.get(new File(PATH_TO_BAM)));
+    }
+
+    @Test
+    public void SpanContainsAllOverlappingRecords() throws Exception {
+        SharedBAMIndex index = SharedBAMIndex.get(new File(PATH_TO_BAM));
+        Random random = new Random(42);
+        try (SamReader reader = SamReaderFactory.makeDefault().open(new File(PATH_TO_BAM))) {
+            int referenceIndex = reader.getFileHeader().getSequenceIndex("MT");
+            int length = reader.getFileHeader().getSequence(referenceIndex).getSequenceLength();
+            for (int i = 0; i < 50; i++) {
+                int start = 1 + random.nextInt(length);
+                int end = Math.min(length, start + random.nextInt(2000));
+
+                Set<String> expected = new HashSet<>();
+                try (SAMRecordIterator iter = reader.queryOverlapping("MT", start, end)) {
+                    iter.forEachRemaining(record -> expected.add(record.getSAMString()));
+                }
+                Set<String> actual = new HashSet<>();
+                try (SAMRecordIterator iter = reader.indexing().iterator(index.getSpan(referenceIndex, start, end))) {
+                    iter.forEachRemaining(record -> actual.add(record.getSAMString()));
+                }
+                assertTrue(actual.containsAll(expected));
+            }
+        }
+    }
+}
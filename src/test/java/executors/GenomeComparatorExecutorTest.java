@@ -0,0 +1,150 @@
+package executors;
+
+import bam.regular.QueryMode;
+import genome.compare.common.ComparatorType;
+import util.TrioComparator;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests, that the comparison of the genomes doesn't depend on the way the BAM files are read.
+ *
+ * @author Sergey Khvatov
+ */
+public class GenomeComparatorExecutorTest {
+
+    /**
+     * Path to the father's BAM file.
+     */
+    private static final String PATH_TO_DAD_BAM = "src/test/resources/genome/compare/testDadMT.bam";
+
+    /**
+     * Path to the son's BAM file.
+     */
+    private static final String PATH_TO_SON_BAM = "src/test/resources/genome/compare/testSonMT.bam";
+
+    /**
+     * Path to the mother's BAM file.
+     */
+    private static final String PATH_TO_MOTHER_BAM = "src/test/resources/genome/compare/testMotherMT.bam";
+
+    /**
+     * Path to the BED file with the features of the mitochondrial chromosome.
+     */
+    private static final String PATH_TO_BED = "src/test/resources/genome/compare/correct2.bed";
+
+    /**
+     * Lines of the comparison, that queries each feature using the index.
+     */
+    private static List<String> indexed;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUp() {
+        indexed = compare(new ComparisonOptions());
+    }
+
+    @Test
+    public void StreamingModeGivesTheSameComparison() {
+        ComparisonOptions options = new ComparisonOptions();
+        options.queryMode = QueryMode.STREAMING;
+        assertEquals(indexed, compare(options));
+    }
+
+    @Test
+    public void BatchModeGivesTheSameComparison() {
+        ComparisonOptions options = new ComparisonOptions();
+        options.queryMode = QueryMode.BATCH;
+        assertEquals(indexed, compare(options));
+    }
+
+    @Test
+    public void BatchModeGivesTheSameComparisonOfManyFeatures() throws Exception {
+        // more features, than may wait for the other BAM file with one thread
+        File bed = folder.newFile("many.bed");
+        try (PrintWriter writer = new PrintWriter(bed)) {
+            writer.println("#chrom\tchromStart\tchromEnd\tname");
+            for (int i = 0; i < 40; i++) {
+                writer.println("MT  " + (1500 + 50 * i) + " " + (1560 + 50 * i) + " G" + i / 10);
+            }
+        }
+        ComparisonOptions options = new ComparisonOptions();
+        options.queryMode = QueryMode.BATCH;
+        assertEquals(compare(new ComparisonOptions(), bed.getPath(), 1), compare(options, bed.getPath(), 1));
+    }
+
+    @Test
+    public void MemoryMappedFilesGiveTheSameComparison() {
+        for (QueryMode queryMode : QueryMode.values()) {
+            ComparisonOptions options = new ComparisonOptions();
+            options.queryMode = queryMode;
+            options.readerOptions.memoryMapped = true;
+            assertEquals(indexed, compare(options));
+        }
+    }
+
+    @Test
+    public void CoverageStatisticsOfCachedFeaturesAreWritten() throws Exception {
+        File cache = folder.newFolder("cache");
+        File coverage = folder.newFolder("coverage");
+        List<List<String>> previous = null;
+        // the son's regions are cached by the first comparison of each run,
+        // the second run takes all the regions from the cache
+        for (int run = 0; run < 2; run++) {
+            ComparisonOptions options = new ComparisonOptions();
+            options.queryMode = run == 0 ? QueryMode.INDEXED : QueryMode.BATCH;
+            options.cacheDirectory = cache;
+            options.coverageDirectory = coverage;
+            TrioComparator.compareThreeGenomes(PATH_TO_DAD_BAM, PATH_TO_MOTHER_BAM, PATH_TO_SON_BAM, PATH_TO_BED, ComparatorType.LEVENSHTEIN, 4, false, null, options);
+            List<List<String>> files = new ArrayList<>();
+            for (String name : new String[]{"testDadMT.bam", "testMotherMT.bam", "testSonMT.bam"}) {
+                List<String> lines = Files.readAllLines(new File(coverage, name + ".coverage.tsv").toPath());
+                // header and both features of the BED file
+                assertEquals(name, 3, lines.size());
+                files.add(lines);
+            }
+            if (previous != null) {
+                assertEquals(previous, files);
+            }
+            previous = files;
+        }
+    }
+
+    /**
+     * Compares the genomes of the father and the son.
+     *
+     * @param options Options of the comparison.
+     * @return Sorted lines of the comparison results, as the features are compared in any order.
+     */
+    private static List<String> compare(ComparisonOptions options) {
+        return compare(options, PATH_TO_BED, 4);
+    }
+
+    /**
+     * Compares the genomes of the father and the son in the features of the BED file.
+     *
+     * @param options    Options of the comparison.
+     * @param pathToBED  Path to the BED file.
+     * @param threadsNum Number of the comparison threads.
+     * @return Sorted lines of the comparison results, as the features are compared in any order.
+     */
+    private static List<String> compare(ComparisonOptions options, String pathToBED, int threadsNum) {
+        GenomeComparatorExecutor executor = new GenomeComparatorExecutor(PATH_TO_DAD_BAM, PATH_TO_SON_BAM, pathToBED, ComparatorType.LEVENSHTEIN, options);
+        List<String> lines = Arrays.asList(executor.compareGenomes(threadsNum, false).analyze().split("\n"));
+        lines.sort(String::compareTo);
+        return lines;
+    }
+}
@@ -0,0 +1,127 @@
+package genome.assembly;
+
+import bam.regular.BEDFeature;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the {@link ConsensusBuffer} class.
+ *
+ * @author Sergey Khvatov
+ */
+public class ConsensusBufferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void RegionsAreAssembledIntoTheBuffer() throws Exception {
+        Random random = new Random(17);
+        SAMFileHeader header = new SAMFileHeader();
+        List<AlignedRead> reads = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int length = 50 + random.nextInt(100);
+            SAMRecord record = new SAMRecord(header);
+            record.setAlignmentStart(1 + random.nextInt(20000));
+            record.setCigarString(length + "M");
+            byte[] bases = new byte[length];
+            byte[] qualities = new byte[length];
+            for (int j = 0; j < length; j++) {
+                bases[j] = (byte) "ACGT".charAt(random.nextInt(4));
+                qualities[j] = (byte) random.nextInt(40);
+            }
+            record.setReadBases(bases);
+            record.setBaseQualities(qualities);
+            reads.add(new AlignedRead(record));
+        }
+        SAMRecordList samRecords = new SAMRecordList(reads);
+        // the end of the feature is not covered by any read
+        BEDFeature feature = new BEDFeature("MT", 100, 20500, "gene1");
+        List<GenomeRegion> expected = GenomeConstructor.assembly(samRecords, feature);
+
+        // views are the same as the regions assembled on the heap
+        for (ConsensusBuffer buffer : new ConsensusBuffer[]{new ConsensusBuffer(), new ConsensusBuffer(folder.getRoot())}) {
+            List<GenomeRegion> regions = new ArrayList<>();
+            GenomeConstructor.assembly(samRecords, feature, regions::add, null, buffer);
+            buffer.close();
+            assertEquals(expected.size(), regions.size());
+            for (int i = 0; i < regions.size(); i++) {
+                assertRegionsEqual(expected.get(i), regions.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void SegmentsAreChainedForEachContig() throws Exception {
+        ConsensusBuffer buffer = new ConsensusBuffer();
+        // regions of two contigs are interleaved and don't fit into one segment
+        int regionsNumber = 2 * ConsensusBuffer.SEGMENT_NUCLEOTIDES / 200;
+        List<GenomeRegion> regions = new ArrayList<>();
+        for (int i = 0; i < regionsNumber; i++) {
+            GenomeRegion region = buffer.allocate(i % 2 == 0 ? "MT" : "X", i * 200, 200, "gene1");
+            for (int j = 0; j < 200; j++) {
+                region.setNucleotide(j, (i + j) % 7 == 0 ? '*' : GenomeRegion.NUCLEOTIDES.charAt((i + j) % 4), (byte) ((i + j) % 41));
+            }
+            regions.add(region);
+        }
+        buffer.close();
+        for (int i = 0; i < regionsNumber; i++) {
+            GenomeRegion region = regions.get(i);
+            for (int j = 0; j < 200; j++) {
+                char nucleotide = (i + j) % 7 == 0 ? '*' : GenomeRegion.NUCLEOTIDES.charAt((i + j) % 4);
+                assertEquals(nucleotide, region.getNucleotideSymbol(j));
+                assertEquals((byte) ((i + j) % 41), region.getQuality(j));
+            }
+        }
+    }
+
+    @Test
+    public void ViewsAreWrittenAsRegions() throws Exception {
+        ConsensusBuffer buffer = new ConsensusBuffer(folder.getRoot());
+        GenomeRegion view = buffer.allocate("MT", 100, 37, "gene1");
+        String sequence = "ACGT*ACGTACGTACGTACGTACGTACGTACGTACG*";
+        for (int i = 0; i < sequence.length(); i++) {
+            view.setNucleotide(i, sequence.charAt(i), (byte) i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        view.write(new DataOutputStream(bytes));
+        buffer.close();
+
+        GenomeRegion region = GenomeRegion.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertRegionsEqual(view, region);
+        assertEquals(sequence, region.getNucleotideSequence());
+    }
+
+    /**
+     * Checks, that the regions contain the same nucleotides and qualities.
+     *
+     * @param expected Expected region.
+     * @param actual   Actual region.
+     */
+    private static void assertRegionsEqual(GenomeRegion expected, GenomeRegion actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.getNucleotideLength(), actual.getNucleotideLength());
+        assertEquals(expected.getWordCount(), actual.getWordCount());
+        for (int i = 0; i < expected.getWordCount(); i++) {
+            assertEquals(expected.getPackedWord(i), actual.getPackedWord(i));
+            assertEquals(expected.getUnknownMask(i), actual.getUnknownMask(i));
+        }
+        assertEquals(expected.getNucleotideSequence(), actual.getNucleotideSequence());
+        for (int i = 0; i < expected.getNucleotideLength(); i++) {
+            assertEquals(expected.getQuality(i), actual.getQuality(i));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package genome.assembly;
+
+import bam.regular.BEDFeature;
+import bam.regular.QueryMode;
+import bam.regular.ReaderOptions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests the {@link ConsensusCache} class.
+ *
+ * @author Sergey Khvatov
+ */
+public class ConsensusCacheTest {
+
+    /**
+     * Feature, whose regions are cached.
+     */
+    private static final BEDFeature FEATURE = new BEDFeature("MT", 100, 200, "gene1");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void RegionsAreReadFromTheDisk() throws Exception {
+        File bam = folder.newFile("sample.bam");
+        File directory = new File(folder.getRoot(), "cache");
+        ConsensusCache cache = new ConsensusCache(directory, bam.getPath(), new ReaderOptions(), QueryMode.INDEXED);
+        assertNull(cache.get(FEATURE));
+        cache.put(FEATURE, Arrays.asList(
+            new GenomeRegion("MT", 100, "ACGT*ACGTACGTACGTACGTACGTACGTACGTACG*", new byte[37], "gene1"),
+            new GenomeRegion("MT", 150, "TTA", new byte[]{5, 20, 30}, "gene1", true)));
+        cache.save();
+
+        List<GenomeRegion> regions = new ConsensusCache(directory, bam.getPath(), new ReaderOptions(), QueryMode.INDEXED).get(FEATURE);
+        assertEquals(2, regions.size());
+        assertEquals("ACGT*ACGTACGTACGTACGTACGTACGTACGTACG*", regions.get(0).getNucleotideSequence());
+        assertEquals(150, regions.get(1).getStart());
+        assertEquals("TTA", regions.get(1).getNucleotideSequence());
+        assertEquals(6, regions.get(1).getQuality(0));
+        assertEquals(22, regions.get(1).getQuality(1));
+        assertNull(new ConsensusCache(directory, bam.getPath(), new ReaderOptions(), QueryMode.INDEXED).get(new BEDFeature("MT", 100, 201, "gene1")));
+    }
+
+    @Test
+    public void StatisticsAreReadFromTheDisk() throws Exception {
+        File bam = folder.newFile("sample.bam");
+        File directory = new File(folder.getRoot(), "cache");
+        CoverageStatistics coverage = new CoverageStatistics(FEATURE);
+        coverage.setReadsNumber(12);
+        coverage.add(0, 3);
+        coverage.add(7, 90);
+        coverage.add(25);
+        ConsensusCache cache = new ConsensusCache(directory, bam.getPath(), new ReaderOptions(), QueryMode.INDEXED);
+        cache.put(FEATURE, Arrays.asList(new GenomeRegion("MT", 100, "ACGT", new byte[4], "gene1")), coverage);
+        cache.save();
+
+        BEDFeature feature = new BEDFeature("MT", 100, 200, "gene1");
+        CoverageStatistics statistics = new ConsensusCache(directory, bam.getPath(), new ReaderOptions(), QueryMode.INDEXED).getStatistics(feature);
+        assertSame(feature, statistics.getFeature());
+        assertEquals(12, statistics.getReadsNumber());
+        assertEquals(94, statistics.getPositionsNumber());
+        assertEquals(0, statistics.getMinDepth());
+        assertEquals(25, statistics.getMaxDepth());
+        assertEquals((7 * 90 + 25) / 94d, statistics.getMeanDepth(), 1e-9);
+        assertArrayEquals(coverage.getHistogram(), statistics.getHistogram());
+    }
+
+    @Test
+    public void ChangedOptionsOrFileAreNotCached() throws Exception {
+        File bam = folder.newFile("sample.bam");
+        File directory = new File(folder.getRoot(), "cache");
+        ConsensusCache cache = new ConsensusCache(directory, bam.getPath(), new ReaderOptions(), QueryMode.INDEXED);
+        cache.put(FEATURE, Arrays.asList(new GenomeRegion("MT", 100, "ACGT", new byte[4], "gene1")));
+        cache.save();
+
+        ReaderOptions options = new ReaderOptions();
+        options.minMappingQuality = 20;
+        assertNull(new ConsensusCache(directory, bam.getPath(), options, QueryMode.INDEXED).get(FEATURE));
+
+        // reads are downsampled differently in each query mode
+        assertEquals(1, new ConsensusCache(directory, bam.getPath(), new ReaderOptions(), QueryMode.STREAMING).get(FEATURE).size());
+        options = new ReaderOptions();
+        options.maxDepth = 10;
+        cache = new ConsensusCache(directory, bam.getPath(), options, QueryMode.INDEXED);
+        cache.put(FEATURE, Arrays.asList(new GenomeRegion("MT", 100, "ACGT", new byte[4], "gene1")));
+        cache.save();
+        assertEquals(1, new ConsensusCache(directory, bam.getPath(), options, QueryMode.INDEXED).get(FEATURE).size());
+        assertNull(new ConsensusCache(directory, bam.getPath(), options, QueryMode.STREAMING).get(FEATURE));
+
+        Files.write(bam.toPath(), new byte[]{1});
+        assertNull(new ConsensusCache(directory, bam.getPath(), new ReaderOptions(), QueryMode.INDEXED).get(FEATURE));
+    }
+}
@@ -0,0 +1,123 @@
+package genome.assembly;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the {@link ConsensusKernel} class.
+ *
+ * @author Sergey Khvatov
+ */
+public class ConsensusKernelTest {
+
+    /**
+     * Finds the median quality by sorting the qualities.
+     *
+     * @param qualities Qualities of the nucleotide.
+     * @return Median quality.
+     */
+    private static byte sortedMedian(List<Byte> qualities) {
+        Collections.sort(qualities);
+        if (qualities.size() % 2 != 0) {
+            return qualities.get(qualities.size() / 2);
+        }
+        return (byte) ((qualities.get(qualities.size() / 2) + qualities.get(qualities.size() / 2 - 1)) / 2);
+    }
+
+    @Test
+    public void UncoveredPositionIsUnknown() {
+        ConsensusKernel kernel = new ConsensusKernel(1);
+        kernel.add(0, (byte) 'N', (byte) 30);
+        kernel.add(0, (byte) ('A' + 128), (byte) 30);
+        kernel.add(0, (byte) '=', (byte) 30);
+        kernel.call(0);
+        assertEquals('*', kernel.getBestNucleotide());
+        assertEquals(0, kernel.getBestQuality());
+    }
+
+    @Test
+    public void TieIsResolvedByMedianQuality() {
+        ConsensusKernel kernel = new ConsensusKernel(1);
+        kernel.add(0, (byte) 'A', (byte) 20);
+        kernel.add(0, (byte) 'a', (byte) 30);
+        kernel.add(0, (byte) 'G', (byte) 35);
+        kernel.add(0, (byte) 'g', (byte) 40);
+        kernel.add(0, (byte) 'T', (byte) 60);
+        kernel.call(0);
+        assertEquals('g', kernel.getBestNucleotide());
+        assertEquals(37, kernel.getBestQuality());
+    }
+
+    @Test
+    public void MatchesSortingOfTheQualities() {
+        Random random = new Random(3);
+        ConsensusKernel kernel = new ConsensusKernel(1);
+        for (int test = 0; test < 1000; test++) {
+            kernel.reset();
+            List<List<Byte>> qualities = new ArrayList<>();
+            for (int i = 0; i < ConsensusKernel.NUCLEOTIDES.length(); i++) {
+                qualities.add(new ArrayList<>());
+            }
+            int depth = random.nextInt(60);
+            for (int i = 0; i < depth; i++) {
+                int nucleotide = random.nextInt(ConsensusKernel.NUCLEOTIDES.length());
+                byte quality = (byte) random.nextInt(94);
+                qualities.get(nucleotide).add(quality);
+                kernel.add(0, (byte) ConsensusKernel.NUCLEOTIDES.charAt(nucleotide), quality);
+            }
+            kernel.call(0);
+
+            // the most frequent nucleotide with the highest median quality, the first one wins the tie
+            char expectedNucleotide = '*';
+            byte expectedQuality = 0;
+            int bestCount = 0;
+            for (int i = 0; i < qualities.size(); i++) {
+                int count = qualities.get(i).size();
+                if (count > 0 && (count > bestCount || count == bestCount && sortedMedian(qualities.get(i)) > expectedQuality)) {
+                    bestCount = count;
+                    expectedNucleotide = ConsensusKernel.NUCLEOTIDES.charAt(i);
+                    expectedQuality = sortedMedian(qualities.get(i));
+                }
+            }
+            assertEquals(expectedNucleotide, kernel.getBestNucleotide());
+            assertEquals(expectedQuality, kernel.getBestQuality());
+        }
+    }
+
+    @Test
+    public void BasesAreCountedAtTheirAlignedPositions() {
+        SAMRecord record = new SAMRecord(new SAMFileHeader());
+        record.setAlignmentStart(100);
+        // soft clip, insertion and deletion
+        record.setCigarString("2S3M1I2M2D3M");
+        record.setReadBases("GGACGTTACAG".getBytes());
+        record.setBaseQualities(new byte[11]);
+        ConsensusKernel kernel = new ConsensusKernel(16);
+        kernel.add(new AlignedRead(record), 98);
+
+        // reference positions from 98 to 113
+        String expected = "**ACGTA**CAG****";
+        for (int i = 0; i < expected.length(); i++) {
+            kernel.call(i);
+            assertEquals(Character.toLowerCase(expected.charAt(i)), kernel.getBestNucleotide());
+        }
+
+        // only the part of the read inside the window is counted
+        kernel.reset();
+        kernel.add(new AlignedRead(record), 106);
+        kernel.call(0);
+        assertEquals('*', kernel.getBestNucleotide());
+        kernel.call(1);
+        assertEquals('c', kernel.getBestNucleotide());
+        kernel.call(4);
+        assertEquals('*', kernel.getBestNucleotide());
+    }
+}
@@ -4,14 +4,17 @@ package genome.assembly;
 import bam.regular.BAMParser;
 import bam.regular.BEDFeature;
 import bam.regular.BEDParser;
+import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
 import org.junit.Before;
 import org.junit.Test;
 import util.Pair;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 
@@ -139,4 +142,102 @@ public class GenomeConstructorTest {
                 new BEDParser(PATH_TO_BED_FILE_2).parse().get(geneName1)
         );
     }
+
+    @Test
+    public void RegionsArePassedAsSoonAsTheyAreAssembled() throws Exception {
+        SAMRecord record = new SAMRecord(new SAMFileHeader());
+        record.setAlignmentStart(1);
+        record.setCigarString("1000M");
+        byte[] bases = new byte[1000];
+        for (int i = 0; i < bases.length; i++) {
+            bases[i] = (byte) "ACGT".charAt(i % 4);
+        }
+        record.setReadBases(bases);
+        record.setBaseQualities(new byte[bases.length]);
+        List<AlignedRead> reads = new ArrayList<>();
+        reads.add(new AlignedRead(record));
+        SAMRecordList samRecords = new SAMRecordList(reads);
+        BEDFeature feature = new BEDFeature("MT", 1, 900, geneName1);
+
+        List<GenomeRegion> expected = GenomeConstructor.assembly(samRecords, feature);
+        List<GenomeRegion> regions = new ArrayList<>();
+        GenomeConstructor.assembly(samRecords, feature, regions::add);
+        assertEquals(4, regions.size());
+        for (int i = 0; i < regions.size(); i++) {
+            assertEquals(expected.get(i).getStart(), regions.get(i).getStart());
+            assertEquals(expected.get(i).getNucleotideSequence(), regions.get(i).getNucleotideSequence());
+        }
+    }
+
+    @Test
+    public void LargeFeatureIsAssembledInParallel() throws Exception {
+        Random random = new Random(13);
+        SAMFileHeader header = new SAMFileHeader();
+        List<AlignedRead> reads = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            int length = 50 + random.nextInt(100);
+            SAMRecord record = new SAMRecord(header);
+            record.setAlignmentStart(1 + random.nextInt(30000));
+            record.setCigarString(length + "M");
+            byte[] bases = new byte[length];
+            byte[] qualities = new byte[length];
+            for (int j = 0; j < length; j++) {
+                bases[j] = (byte) "ACGT".charAt(random.nextInt(4));
+                qualities[j] = (byte) random.nextInt(40);
+            }
+            record.setReadBases(bases);
+            record.setBaseQualities(qualities);
+            reads.add(new AlignedRead(record));
+        }
+        SAMRecordList samRecords = new SAMRecordList(reads);
+
+        // each region is the same, as if it was assembled as a separate feature
+        List<GenomeRegion> regions = GenomeConstructor.assembly(samRecords, new BEDFeature("MT", 100, 30100, geneName1));
+        assertEquals(117, regions.size());
+        for (GenomeRegion region : regions) {
+            BEDFeature feature = new BEDFeature("MT", region.getStart(), region.getStart() + region.getNucleotideLength(), geneName1);
+            GenomeRegion expected = GenomeConstructor.assembly(samRecords, feature).get(0);
+            assertEquals(expected.getNucleotideSequence(), region.getNucleotideSequence());
+            for (int i = 0; i < region.getNucleotideLength(); i++) {
+                assertEquals(expected.getQuality(i), region.getQuality(i));
+            }
+        }
+    }
+
+    @Test
+    public void CoverageStatisticsAreCollected() throws Exception {
+        SAMFileHeader header = new SAMFileHeader();
+        List<AlignedRead> reads = new ArrayList<>();
+        for (int start : new int[]{1, 51, 400}) {
+            SAMRecord record = new SAMRecord(header);
+            record.setAlignmentStart(start);
+            record.setCigarString("100M");
+            byte[] bases = new byte[100];
+            Arrays.fill(bases, (byte) 'C');
+            record.setReadBases(bases);
+            record.setBaseQualities(new byte[100]);
+            reads.add(new AlignedRead(record));
+        }
+        SAMRecordList samRecords = new SAMRecordList(reads);
+
+        BEDFeature feature = new BEDFeature("MT", 1, 201, geneName1);
+        CoverageStatistics statistics = new CoverageStatistics(feature);
+        GenomeConstructor.assembly(samRecords, feature, region -> { }, statistics);
+        assertEquals(2, statistics.getReadsNumber());
+        assertEquals(200, statistics.getPositionsNumber());
+        assertEquals(1.0, statistics.getMeanDepth(), 1e-9);
+        assertEquals(0, statistics.getMinDepth());
+        assertEquals(2, statistics.getMaxDepth());
+        assertEquals(0.25, statistics.getUnknownFraction(), 1e-9);
+        assertEquals(50, statistics.getHistogram()[0]);
+        assertEquals(150, statistics.getHistogram()[1]);
+
+        // the position after each full region is not assembled
+        feature = new BEDFeature("MT", 1, 10001, geneName1);
+        statistics = new CoverageStatistics(feature);
+        GenomeConstructor.assembly(samRecords, feature, region -> { }, statistics);
+        assertEquals(3, statistics.getReadsNumber());
+        assertEquals(10000 - 38, statistics.getPositionsNumber());
+        assertEquals(300, statistics.getMeanDepth() * statistics.getPositionsNumber(), 1e-6);
+    }
 }
@@ -108,4 +108,39 @@ public class GenomeRegionTest {
         int position = genomeRegion.normalize(VALID_POSITION_IN_GENOME);
         assertEquals(position, VALID_POSITION);
     }
+
+    @Test(expected = GenomeException.class)
+    public void CreationFromInvalidNucleotides() throws Exception {
+        GenomeRegion genomeRegion = new GenomeRegion(VALID_CHROM_NAME, VALID_START_POSITION, "AGCTAGNTAGCT", VALID_QUALITIES, VALID_GENE_NAME);
+    }
+
+    @Test
+    public void PackedSequenceIsUnpacked() throws Exception {
+        StringBuilder seq = new StringBuilder();
+        for (int i = 0; i < 70; i++) {
+            seq.append("ACGT*".charAt(i * 7 % 5));
+        }
+        GenomeRegion genomeRegion = new GenomeRegion(VALID_CHROM_NAME, VALID_START_POSITION, seq.toString(), new byte[seq.length()], VALID_GENE_NAME);
+        assertEquals(seq.toString(), genomeRegion.getNucleotideSequence());
+        assertEquals(3, genomeRegion.getWordCount());
+        for (int i = 0; i < seq.length(); i++) {
+            int word = i / GenomeRegion.NUCLEOTIDES_PER_WORD, bit = i % GenomeRegion.NUCLEOTIDES_PER_WORD;
+            boolean unknown = seq.charAt(i) == GenomeRegion.UNKNOWN_NUCLEOTIDE;
+            assertEquals(unknown, genomeRegion.isUnknown(i));
+            assertEquals(unknown, (genomeRegion.getUnknownMask(word) >>> bit & 1) == 1);
+            if (!unknown) {
+                assertEquals(GenomeRegion.NUCLEOTIDES.indexOf(seq.charAt(i)), genomeRegion.getPackedWord(word) >>> 2 * bit & 3);
+            }
+        }
+    }
+
+    @Test
+    public void QualitiesAreBinned() throws Exception {
+        byte[] qualities = {0, 1, 2, 9, 10, 19, 20, 24, 25, 29, 30, 34, 35, 39, 40, 60};
+        byte[] binned = {0, 0, 6, 6, 15, 15, 22, 22, 27, 27, 33, 33, 37, 37, 40, 40};
+        GenomeRegion genomeRegion = new GenomeRegion(VALID_CHROM_NAME, VALID_START_POSITION, "ACGTACGTACGTACGT", qualities, VALID_GENE_NAME, true);
+        for (int i = 0; i < qualities.length; i++) {
+            assertEquals(binned[i], genomeRegion.getQuality(i));
+        }
+    }
 }
@@ -0,0 +1,85 @@
+package genome.assembly;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the {@link ReadPileup} class.
+ *
+ * @author Sergey Khvatov
+ */
+public class ReadPileupTest {
+
+    /**
+     * Creates the sorted list of the random reads.
+     *
+     * @param random Source of the random numbers.
+     * @return Reads sorted by the start position.
+     */
+    private static SAMRecordList randomReads(Random random) {
+        SAMFileHeader header = new SAMFileHeader();
+        List<AlignedRead> reads = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            int length = 1 + random.nextInt(150);
+            SAMRecord record = new SAMRecord(header);
+            record.setAlignmentStart(1 + random.nextInt(2000));
+            record.setCigarString(length + "M");
+            byte[] bases = new byte[length];
+            byte[] qualities = new byte[length];
+            for (int j = 0; j < length; j++) {
+                bases[j] = (byte) "ACGT".charAt(random.nextInt(4));
+                qualities[j] = (byte) random.nextInt(40);
+            }
+            record.setReadBases(bases);
+            record.setBaseQualities(qualities);
+            reads.add(new AlignedRead(record));
+        }
+        return new SAMRecordList(reads);
+    }
+
+    /**
+     * Finds the reads covering the position by checking each read.
+     *
+     * @param reads    All the reads.
+     * @param position Position on the reference.
+     * @return Reads covering the position.
+     */
+    private static Set<AlignedRead> covering(List<AlignedRead> reads, int position) {
+        Set<AlignedRead> result = new HashSet<>();
+        for (AlignedRead read : reads) {
+            if (read.getStart() <= position && read.getEnd() >= position) {
+                result.add(read);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void WindowContainsCoveringReads() {
+        SAMRecordList reads = randomReads(new Random(7));
+        ReadPileup pileup = new ReadPileup(reads);
+        for (int position = 1; position <= 2200; position++) {
+            List<AlignedRead> window = pileup.moveTo(position);
+            assertEquals(covering(reads, position), new HashSet<>(window));
+            assertEquals(window.size(), new HashSet<>(window).size());
+        }
+    }
+
+    @Test
+    public void MovingBackwardRestartsThePileup() {
+        SAMRecordList reads = randomReads(new Random(11));
+        ReadPileup pileup = new ReadPileup(reads);
+        pileup.moveTo(1500);
+        assertEquals(covering(reads, 700), new HashSet<>(pileup.moveTo(700)));
+        assertEquals(covering(reads, 1900), new HashSet<>(pileup.moveTo(1900)));
+    }
+}
@@ -0,0 +1,119 @@
+package genome.assembly;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link SAMRecordList} class.
+ *
+ * @author Sergey Khvatov
+ */
+public class SAMRecordListTest {
+
+    /**
+     * Creates the read with the bases of the given length.
+     *
+     * @param start  Start position of the read.
+     * @param length Length of the read.
+     * @return Read.
+     */
+    private static AlignedRead read(int start, int length) {
+        SAMRecord record = new SAMRecord(new SAMFileHeader());
+        record.setAlignmentStart(start);
+        record.setCigarString(length + "M");
+        byte[] bases = new byte[length];
+        Arrays.fill(bases, (byte) 'A');
+        record.setReadBases(bases);
+        record.setBaseQualities(new byte[length]);
+        return new AlignedRead(record);
+    }
+
+    /**
+     * Creates the random reads, some of which are much longer than the other ones.
+     *
+     * @param random Source of the random numbers.
+     * @return Reads in the random order.
+     */
+    private static List<AlignedRead> randomReads(Random random) {
+        List<AlignedRead> reads = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            reads.add(read(1 + random.nextInt(3000), 1 + random.nextInt(i % 50 == 0 ? 1000 : 150)));
+        }
+        return reads;
+    }
+
+    /**
+     * Checks, that the reads are sorted by the start and the end positions.
+     *
+     * @param reads List of the reads.
+     */
+    private static void assertSorted(List<AlignedRead> reads) {
+        for (int i = 1; i < reads.size(); i++) {
+            AlignedRead previous = reads.get(i - 1), current = reads.get(i);
+            assertTrue(previous.getStart() < current.getStart() || previous.getStart() == current.getStart() && previous.getEnd() <= current.getEnd());
+        }
+    }
+
+    @Test
+    public void ReadsAreSortedWhenAdded() {
+        List<AlignedRead> reads = randomReads(new Random(5));
+        SAMRecordList bulk = new SAMRecordList(reads);
+        SAMRecordList single = new SAMRecordList();
+        for (AlignedRead read : reads) {
+            assertTrue(single.add(read));
+        }
+        assertEquals(reads.size(), bulk.size());
+        assertEquals(reads.size(), single.size());
+        assertSorted(bulk);
+        assertSorted(single);
+    }
+
+    @Test
+    public void RepeatedReadsAreSkipped() {
+        AlignedRead first = read(100, 50), second = read(100, 50), third = read(200, 50);
+        SAMRecordList reads = new SAMRecordList(Arrays.asList(first, first, second));
+        assertEquals(2, reads.size());
+        assertFalse(reads.add(second));
+
+        // the reads after the repeated one are still added
+        assertTrue(reads.addAll(Arrays.asList(first, third)));
+        assertEquals(3, reads.size());
+        assertSame(third, reads.get(2));
+        assertFalse(reads.addAll(Collections.singletonList(third)));
+    }
+
+    @Test
+    public void OverlappingReadsAreFound() {
+        Random random = new Random(9);
+        List<AlignedRead> reads = randomReads(random);
+        SAMRecordList list = new SAMRecordList(reads);
+        for (int test = 0; test < 1000; test++) {
+            if (test == 500) {
+                // index is rebuilt after the list was modified
+                list.addAll(randomReads(random));
+            }
+            long start = random.nextInt(4200), end = start + random.nextInt(test % 2 == 0 ? 1 : 300);
+            List<AlignedRead> expected = new ArrayList<>();
+            for (AlignedRead read : list) {
+                if (read.getStart() <= end && read.getEnd() >= start) {
+                    expected.add(read);
+                }
+            }
+            List<AlignedRead> found = new ArrayList<>();
+            list.getSAMRecordList(start, end).forEach(found::add);
+            assertEquals(expected, found);
+        }
+    }
+}
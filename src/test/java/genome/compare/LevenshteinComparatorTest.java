@@ -65,4 +65,13 @@ public class LevenshteinComparatorTest {
         testObj = new LevenshteinComparator(REGIONS[0], REGIONS[1]);
         assertEquals(testObj.compare().getDifference(), new LevenshteinComparisonResult("chr1", "00", 46, 75).getDifference());
     }
+
+    @Test
+    public void LevenshteinDistIsCappedTest() throws Exception {
+        // distance is exact up to the cap, and exceeds it by 1 otherwise
+        assertEquals(46, new LevenshteinComparator(REGIONS[0], REGIONS[1], 62d).compare().getDifference());
+        assertEquals(8, new LevenshteinComparator(REGIONS[0], REGIONS[1], 10d).compare().getDifference());
+        assertEquals(1, new LevenshteinComparator(REGIONS[0], REGIONS[1], 0d).compare().getDifference());
+        assertEquals(0, new LevenshteinComparator(REGIONS[0], REGIONS[0], 0d).compare().getDifference());
+    }
 }
@@ -0,0 +1,176 @@
+package genome.compare;
+
+import genome.assembly.GenomeRegion;
+import genome.compare.levenshtein.LevenshteinComparator;
+import genome.compare.levenshtein.LevenshteinComparisonResult;
+import genome.compare.levenshtein.MyersDistance;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the {@link MyersDistance} class against the dynamic programming.
+ *
+ * @author Sergey Khvatov
+ */
+public class MyersDistanceTest {
+
+    @Test
+    public void RandomSequencesHaveTheSameDistance() throws Exception {
+        Random random = new Random(5);
+        MyersDistance distance = new MyersDistance();
+        for (int test = 0; test < 2000; test++) {
+            // lengths around the borders of the blocks
+            int[] text = randomSymbols(random, random.nextInt(300));
+            int[] pattern = randomSymbols(random, test % 3 == 0 ? text.length : random.nextInt(300));
+            if (test % 5 == 0) {
+                // similar sequences
+                System.arraycopy(text, 0, pattern, 0, Math.min(text.length, pattern.length));
+                for (int i = 0; i < pattern.length / 20; i++) {
+                    pattern[random.nextInt(pattern.length)] = random.nextInt(4);
+                }
+            }
+            assertEquals(levenshtein(text, pattern), distance.distance(text, text.length, pattern, pattern.length));
+        }
+    }
+
+    @Test
+    public void SimilarSequencesHaveTheSameDistanceInsideOfTheCap() throws Exception {
+        Random random = new Random(11);
+        MyersDistance distance = new MyersDistance();
+        for (int test = 0; test < 2000; test++) {
+            // several blocks, that are left and reached by the band
+            int[] text = randomSymbols(random, random.nextInt(700));
+            int[] pattern = edit(random, text, random.nextInt(test % 2 == 0 ? 10 : 80));
+            int expected = levenshtein(text, pattern);
+            assertEquals(expected, distance.distance(text, text.length, pattern, pattern.length));
+            int cap = random.nextInt(2 * expected + 2);
+            assertEquals(expected <= cap ? expected : cap + 1, distance.distance(text, text.length, pattern, pattern.length, cap));
+        }
+    }
+
+    @Test
+    public void RandomRegionsHaveTheSameDistanceAsStrings() throws Exception {
+        Random random = new Random(7);
+        for (int test = 0; test < 500; test++) {
+            int length = 1 + random.nextInt(256);
+            String first = randomSequence(random, length);
+            String second = randomSequence(random, test % 4 == 0 ? 1 + random.nextInt(256) : length);
+            if (test % 2 == 0) {
+                char[] similar = first.toCharArray();
+                for (int i = 0; i < Math.min(first.length(), second.length()); i++) {
+                    if (random.nextInt(10) != 0) {
+                        similar[i] = second.charAt(i);
+                    }
+                }
+                first = new String(similar);
+            }
+            LevenshteinComparisonResult result = new LevenshteinComparator(
+                new GenomeRegion("chr1", 0, first, new byte[first.length()], "00"),
+                new GenomeRegion("chr1", 0, second, new byte[second.length()], "00")).compare();
+
+            // unknown nucleotides are deleted from both strings, the known ones
+            // after the end of the second string are replaced by their positions
+            StringBuilder f = new StringBuilder(), s = new StringBuilder();
+            for (int i = 0; i < Math.min(first.length(), second.length()); i++) {
+                if (first.charAt(i) != '*' && second.charAt(i) != '*') {
+                    f.append(first.charAt(i));
+                    s.append(second.charAt(i));
+                }
+            }
+            for (int i = second.length(); i < first.length(); i++) {
+                if (first.charAt(i) != '*') {
+                    f.append(i);
+                }
+            }
+            assertEquals(levenshtein(f.chars().toArray(), s.chars().toArray()), result.getDifference());
+            assertEquals(Math.max(f.length(), s.length()), result.getSequenceLen());
+        }
+    }
+
+    /**
+     * Generates the random sequence of the symbols of the alphabet.
+     *
+     * @param random Random generator.
+     * @param length Length of the sequence.
+     * @return Sequence of the symbols.
+     */
+    private static int[] randomSymbols(Random random, int length) {
+        int[] symbols = new int[length];
+        for (int i = 0; i < length; i++) {
+            symbols[i] = random.nextInt(MyersDistance.ALPHABET_SIZE);
+        }
+        return symbols;
+    }
+
+    /**
+     * Makes the random substitutions, insertions and deletions in the sequence.
+     *
+     * @param random  Random generator.
+     * @param symbols Sequence of the symbols.
+     * @param edits   Number of the edits.
+     * @return Edited sequence.
+     */
+    private static int[] edit(Random random, int[] symbols, int edits) {
+        List<Integer> edited = new ArrayList<>();
+        for (int symbol : symbols) {
+            edited.add(symbol);
+        }
+        for (int i = 0; i < edits; i++) {
+            int position = random.nextInt(edited.size() + 1);
+            int type = random.nextInt(3);
+            if (type == 0 || position == edited.size() && type == 1) {
+                edited.add(position, random.nextInt(MyersDistance.ALPHABET_SIZE));
+            } else if (type == 1) {
+                edited.remove(position);
+            } else if (position < edited.size()) {
+                edited.set(position, random.nextInt(MyersDistance.ALPHABET_SIZE));
+            }
+        }
+        return edited.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Generates the random nucleotide sequence with the unknown nucleotides.
+     *
+     * @param random Random generator.
+     * @param length Length of the sequence.
+     * @return Nucleotide sequence.
+     */
+    private static String randomSequence(Random random, int length) {
+        char[] sequence = new char[length];
+        for (int i = 0; i < length; i++) {
+            sequence[i] = random.nextInt(8) == 0 ? '*' : "ACGT".charAt(random.nextInt(4));
+        }
+        return new String(sequence);
+    }
+
+    /**
+     * Calculates the Levenshtein distance by the dynamic programming.
+     *
+     * @param first  First sequence.
+     * @param second Second sequence.
+     * @return Levenshtein distance.
+     */
+    private static int levenshtein(int[] first, int[] second) {
+        int[] previous = new int[second.length + 1];
+        int[] current = new int[second.length + 1];
+        for (int k = 0; k <= second.length; k++) {
+            previous[k] = k;
+        }
+        for (int l = 1; l <= first.length; l++) {
+            current[0] = l;
+            for (int k = 1; k <= second.length; k++) {
+                current[k] = Math.min(Math.min(current[k - 1], previous[k]) + 1, previous[k - 1] + (first[l - 1] == second[k - 1] ? 0 : 1));
+            }
+            int[] row = previous;
+            previous = current;
+            current = row;
+        }
+        return previous[second.length];
+    }
+}
@@ -3,6 +3,8 @@ package util;
 import cmd.CmdParser;
 import cmd.Configuration;
 import cmd.Operation;
+import exception.CommandLineException;
+import htsjdk.samtools.ValidationStringency;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -18,7 +20,7 @@ public class UserInputParserTest {
 
     private final static String PATH_TO_BAM_3 = "src/test/resources/genome/compare/testSon4.bam";
 
-    private final static String CHECK_STR_0 = "## Usage\n" + "    java -jar bio_relatives.jar [-h | --help] [-io | --intermediateOutput] [-g | --graph <path to the file>] [-c2 | --compare2 <first> <second> <bed>] [-c3 | --compare3 <father> <mother> <son> <bed>] [-m | --mode <L | XY>] [-th | --threadsNumber <number>]\n" + "### Options\n" + "\n" + "`-h`, `--help` - show help message.\n" + "\n" + "`-io`, `--intermediateOutput` - key, which enables intermediate results output.\n" + "\n" + "`-c2`, `--compare2` - compare genomes of two persons.\n" + "\n" + "`-c3`, `--compare3` - compare genomes of three persons (father/mother/son).\n" + "\n" + "`-m`, `--mode` - defines which comparator will be used.\n" + "\n" + "`-g`, `--graph` - defines whether graph should be printed or not (used only in STR comparison).\n" + "\n" + "`-th`, `--threadsNumber` - defines number of threads that should be created to process the information analysis.\n";;
+    private final static String CHECK_STR_0 = "## Usage\n" + "    java -jar bio_relatives.jar [-h | --help] [-io | --intermediateOutput] [-g | --graph <path to the file>] [-c2 | --compare2 <first> <second> <bed>] [-c3 | --compare3 <father> <mother> <son> <bed>] [-m | --mode <L | XY>] [-th | --threadsNumber <number>] [-qm | --queryMode <I | B | S>] [-mq | --minMappingQuality <number>] [-ef | --excludeFlags <flags>] [-vs | --validationStringency <STRICT | LENIENT | SILENT>] [-dt | --decompressionThreads <number>] [-mm | --memoryMapped] [-r | --reference <path to the file>] [-md | --maxDepth <number>] [-cd | --cacheDirectory <path to the directory>] [-cs | --coverageStatistics <path to the directory>] [-oh | --offHeap [path to the directory]] [-dc | --differenceCap <percent>]\n" + "### Options\n" + "\n" + "`-h`, `--help` - show help message.\n" + "\n" + "`-io`, `--intermediateOutput` - key, which enables intermediate results output.\n" + "\n" + "`-c2`, `--compare2` - compare genomes of two persons.\n" + "\n" + "`-c3`, `--compare3` - compare genomes of three persons (father/mother/son).\n" + "\n" + "`-m`, `--mode` - defines which comparator will be used.\n" + "\n" + "`-g`, `--graph` - defines whether graph should be printed or not (used only in STR comparison).\n" + "\n" + "`-th`, `--threadsNumber` - defines number of threads that should be created to process the information analysis.\n" + "\n" + "`-qm`, `--queryMode` - defines how the reads are queried from the BAM files: `I` - one indexed query per feature (default), `B` - one sorted multi-interval query per contig, `S` - one sequential pass over each BAM file without the index (BAM file may be read from the standard input using `-` as its path).\n" + "\n" + "`-mq`, `--minMappingQuality` - defines the minimal mapping quality of the reads, that are used to assemble the genome (default 0).\n" + "\n" + "`-ef`, `--excludeFlags` - defines the SAM flags (decimal or hexadecimal, e.g. `0xF00` to skip secondary, QC-failed, duplicate and supplementary reads) of the reads, that should be skipped. Unmapped reads are always skipped.\n" + "\n" + "`-vs`, `--validationStringency` - defines the validation stringency of the records from the BAM files (default `STRICT`). `SILENT` skips the validation of each record.\n" + "\n" + "`-dt`, `--decompressionThreads` - defines number of threads that should be created to decompress the BAM files ahead of the reading thread (default 0 - the reading thread decompresses them itself).\n" + "\n" + "`-mm`, `--memoryMapped` - key, which enables reading of the BAM files through the memory mapping, that is shared by all the threads reading the same file.\n" + "\n" + "`-r`, `--reference` - defines the FASTA file of the reference, that the CRAM files were compressed against. Input genomes may be given as CRAM files with the `.crai` index instead of the BAM files.\n" + "\n" + "`-md`, `--maxDepth` - defines the maximal number of the reads covering any position (default 0 - no limit). Reads beyond it are downsampled deterministically by the hash of their names, while the BAM files are read.\n" + "\n" + "`-cd`, `--cacheDirectory` - defines the directory, where the genomes assembled from each BAM file are cached between the runs. Cached genomes are reused, until the BAM file or the options of reading it are changed, so the son's genome is assembled only once, when three genomes are compared, and the same parents may be compared with several children without reading their BAM files again.\n" + "\n" + "`-cs`, `--coverageStatistics` - defines the directory, where the coverage statistics of the features are written while the genomes are assembled, to the file `<BAM file name>.coverage.tsv` for each BAM file: number of the reads, mean, minimal and maximal depth, fraction of the unknown nucleotides and the histogram of the depths of the positions. Statistics of the features, whose genomes are taken from the cache, are stored in the cache together with them.\n" + "\n" + "`-oh`, `--offHeap` - key, which enables assembling of the genomes into the off-heap buffers, one chain of the segments per contig, so that the size of the heap does not depend on the size of the genomes. If the directory is given, the buffers are mapped from the temporary files in it, that are deleted after the comparison, so they may be paged out by the operating system.\n" + "\n" + "`-dc`, `--differenceCap` - defines the maximal percentage of the differences in each region, up to which the Levenshtein distance is calculated exactly (default 100). Regions, that differ more, are compared only until the cap is exceeded and counted as if they differed by one nucleotide more than the cap, so the similarity of the dissimilar regions is overestimated. The cap is worth using only, if it is small, up to 6 percents: the regions, shorter than 16 times the cap, are compared in full (on the mitochondrial regions of the relatives, about 250 nucleotides long, the caps of 1-5 percents compare them about 1.25 times faster).\n";;
     private final static String CHECK_STR_1 ="Similarity percentage for each chromosome:\n" +
             "\tName of chromosome: 4. Similarity percentage: 100.0%\n" +
             "\tNumber of nucleotides compared: 1768\n" +
@@ -93,4 +95,38 @@ public class UserInputParserTest {
         Configuration config = new CmdParser().parseCommandLine(args);
         assertEquals(CHECK_STR_2, new Operation().start(config));
     }
+
+    @Test
+    public void CorrectUserInputTestReadFilters() throws Exception {
+        String[] args = {"-c2", PATH_TO_BAM_1, PATH_TO_BAM_3, PATH_TO_BED, "-mq", "20", "-ef", "1024", "-vs", "lenient"};
+        Configuration config = new CmdParser().parseCommandLine(args);
+        assertEquals(20, config.comparisonOptions.readerOptions.minMappingQuality);
+        assertEquals(1024, config.comparisonOptions.readerOptions.excludedFlags);
+        assertEquals(ValidationStringency.LENIENT, config.comparisonOptions.readerOptions.validationStringency);
+    }
+
+    @Test
+    public void CorrectUserInputTestHexadecimalExcludedFlags() throws Exception {
+        String[] args = {"-c2", PATH_TO_BAM_1, PATH_TO_BAM_3, PATH_TO_BED, "--excludeFlags", "0xF00"};
+        Configuration config = new CmdParser().parseCommandLine(args);
+        assertEquals(0xF00, config.comparisonOptions.readerOptions.excludedFlags);
+    }
+
+    @Test(expected = CommandLineException.class)
+    public void IncorrectUserInputTestNegativeMinMappingQuality() throws Exception {
+        String[] args = {"-c2", PATH_TO_BAM_1, PATH_TO_BAM_3, PATH_TO_BED, "-mq", "-1"};
+        new CmdParser().parseCommandLine(args);
+    }
+
+    @Test(expected = CommandLineException.class)
+    public void IncorrectUserInputTestNegativeExcludedFlags() throws Exception {
+        String[] args = {"-c2", PATH_TO_BAM_1, PATH_TO_BAM_3, PATH_TO_BED, "-ef", "-0x4"};
+        new CmdParser().parseCommandLine(args);
+    }
+
+    @Test(expected = CommandLineException.class)
+    public void IncorrectUserInputTestValidationStringency() throws Exception {
+        String[] args = {"-c2", PATH_TO_BAM_1, PATH_TO_BAM_3, PATH_TO_BED, "-vs", "STRICTEST"};
+        new CmdParser().parseCommandLine(args);
+    }
 }